@@ -1,15 +1,21 @@
 package AstrozleAudio;
 
+/**
+    The AudioManager plays the sounds of the game on an AudioMixer.
+    Its methods don't block: they queue a command for the mixer
+    thread.
+*/
 public class AudioManager {
     public enum SoundType {
-        BG_MUSIC(0),
-        COIN_PICKUP(1),
-        STAR_PICKUP(2),
-        PLAYER_JUMP(3),
-        PLAYER_DEATH(4),
-        CREATURE_DEATH(5),
-        LEVEL_ADVANCE(6),
-        GAME_OVER(7);
+        // value, max. voices, priority
+        BG_MUSIC(0, 1, 4),
+        COIN_PICKUP(1, 3, 0),
+        STAR_PICKUP(2, 1, 2),
+        PLAYER_JUMP(3, 2, 1),
+        PLAYER_DEATH(4, 1, 3),
+        CREATURE_DEATH(5, 3, 1),
+        LEVEL_ADVANCE(6, 1, 3),
+        GAME_OVER(7, 1, 3);
         
         public static final int count;
         
@@ -17,18 +23,39 @@ public class AudioManager {
             return value;
         }
         
+        /**
+            Gets how many sounds of this type can play at once.
+        */
+        public int getMaxVoices() {
+            return maxVoices;
+        }
+        
+        /**
+            Gets the priority of this type. Sounds of a higher priority
+            cut off the ones of a lower priority when all voices are
+            busy.
+        */
+        public int getPriority() {
+            return priority;
+        }
+        
         static {
           count = values().length;
         }
         
         private final int value;
+        private final int maxVoices;
+        private final int priority;
         
-        private SoundType(int value) {
+        private SoundType(int value, int maxVoices, int priority) {
             this.value = value;
+            this.maxVoices = maxVoices;
+            this.priority = priority;
         }
     };
     
     private final Sound[] sounds;
+    private final AudioMixer mixer;
     
     private AudioManager() {
         sounds = new Sound[SoundType.count];
@@ -40,6 +67,18 @@ public class AudioManager {
         sounds[SoundType.CREATURE_DEATH.getValue()] = new Sound("Creature_Death.wav");
         sounds[SoundType.LEVEL_ADVANCE.getValue()] = new Sound("Level_Advance.wav");
         sounds[SoundType.GAME_OVER.getValue()] = new Sound("Game_Over.wav");
+        
+        // decode the short effects once, only the music is streamed
+        for (SoundType type : SoundType.values()) {
+            if (type != SoundType.BG_MUSIC)
+                sounds[type.getValue()].decode();
+        }
+        
+        mixer = new AudioMixer(SoundType.count);
+        for (SoundType type : SoundType.values())
+            mixer.setLimits(type.getValue(), type.getMaxVoices(),
+                type.getPriority());
+        mixer.start();
     }
     
     private static class SingletonHolder {
@@ -51,41 +90,34 @@ public class AudioManager {
     }
     
     public void play(SoundType type) {
-        new Thread() {
-            @Override
-            public void run() {
-                Sound selectedSound = sounds[type.getValue()];
-                if (selectedSound.isPlaying())
-                    return;
-
-                selectedSound.play();
-
-                while (selectedSound.isPlaying())
-                    selectedSound.outputSound();
-
-                selectedSound.reload();
-            }
-        }.start();
+        mixer.play(type.getValue(), sounds[type.getValue()]);
     }
     
     public void stop(SoundType type) {
-        sounds[type.getValue()].stop();
+        mixer.stop(type.getValue());
     }
     
     public void stopAll() {
-        for (SoundType type : SoundType.values())
-            sounds[type.getValue()].stop();
+        mixer.stopAll();
     }
     
     public void pause(SoundType type) {
-        sounds[type.getValue()].pause();
+        mixer.setPaused(type.getValue(), true);
     }
     
     public void resume(SoundType type) {
-        sounds[type.getValue()].resume();
+        mixer.setPaused(type.getValue(), false);
     }
     
     public void changePitch(SoundType type, float factor) {
-        sounds[type.getValue()].changePitch(factor);
+        mixer.setPitch(type.getValue(), factor);
+    }
+    
+    /**
+        Gets a report of the sounds played, stolen and dropped, or
+        null if nothing was played.
+    */
+    public String getReport() {
+        return mixer.getReport();
     }
 }
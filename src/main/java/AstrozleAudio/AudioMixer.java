@@ -0,0 +1,418 @@
+package AstrozleAudio;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+    The AudioMixer plays every Sound on one long-lived thread,
+    through one stereo output line. Each pass, the mixer thread sums
+    the playing Voices into a buffer of BUFFER_FRAMES frames, clips
+    it to 16 bits and writes it to the line. Writing blocks until the line
+    has room, which paces the thread.
+
+    <p>Sounds are addressed by an int key (a SoundType value). The
+    methods that control them only add a command to a lock-free queue,
+    which the mixer thread runs before the next buffer, so the game
+    never waits for audio, and opening and decoding Sounds happens on
+    the mixer thread. Commands run in the order they were made.
+
+    <p>Sounds play on a fixed pool of VOICE_COUNT Voices, so the work
+    per buffer is bounded however many Sounds are played. Each key
+    has a polyphony limit and a priority (see setLimits()). A Sound
+    whose key is at its limit takes over the oldest Voice of its key,
+    unless that key loops (like music), which isn't restarted. When
+    every Voice is busy, a Sound takes over the oldest Voice of the
+    lowest priority, if that priority isn't higher than its own, and
+    is dropped otherwise. getStolenCount() and getDroppedCount() count
+    how often that happens.
+
+    <p>The pitch of a key is not a command: setPitch() only writes
+    it, and each Voice of the key glides to it while it resamples
+    (see Voice), so changing it often costs nothing and doesn't click.
+
+    <p>Sounds that aren't decoded into memory (the music) are decoded
+    ahead of playback by a StreamDecoder on its own thread, so the
+    mixer thread never reads a file. getUnderrunCount() and the
+    report tell whether its ring is big enough.
+
+    <p>If no output line can be opened (no sound device), the mixer
+    keeps mixing in real time without output, so Sounds still start
+    and finish.
+*/
+public class AudioMixer {
+    /**
+        Sample rate of the mix. Voices are resampled to it.
+    */
+    public static final float SAMPLE_RATE = 44100;
+
+    /**
+        Number of frames mixed in one pass (about 12 ms).
+    */
+    public static final int BUFFER_FRAMES = 512;
+
+    /**
+        Number of Sounds that can play at once.
+    */
+    public static final int VOICE_COUNT = 8;
+
+    /**
+        Number of buffers the output line holds, which sets the
+        latency of the mix.
+    */
+    private static final int LINE_BUFFERS = 4;
+
+    private static final AudioFormat FORMAT =
+        new AudioFormat(SAMPLE_RATE, 16, 2, true, false);
+
+    private final ConcurrentLinkedQueue<Runnable> commands =
+        new ConcurrentLinkedQueue<>();
+    private final StreamDecoder decoder = new StreamDecoder();
+    private final Voice[] voices = new Voice[VOICE_COUNT];
+    private final float[] mix = new float[BUFFER_FRAMES * 2];
+    private final byte[] output = new byte[BUFFER_FRAMES * 4];
+    // float bits of the pitch of each key, written by any thread
+    private final AtomicIntegerArray pitches;
+    private final boolean[] paused;
+    private final int[] polyphony;
+    private final int[] priorities;
+    private long serial;
+    private SourceDataLine line;
+    private Thread thread;
+    private volatile boolean running;
+
+    // statistics, written by the mixer thread
+    private volatile long playedCount;
+    private volatile long stolenCount;
+    private volatile long droppedCount;
+    private volatile int maxActive;
+
+    /**
+        Creates a new AudioMixer for Sounds with keys from 0 to
+        keyCount - 1.
+    */
+    public AudioMixer(int keyCount) {
+        pitches = new AtomicIntegerArray(keyCount);
+        paused = new boolean[keyCount];
+        polyphony = new int[keyCount];
+        priorities = new int[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            pitches.set(i, Float.floatToIntBits(1));
+            polyphony[i] = 1;
+        }
+        for (int i = 0; i < VOICE_COUNT; i++)
+            voices[i] = new Voice(SAMPLE_RATE, decoder);
+    }
+
+    /**
+        Sets how many Sounds with the specified key can play at once
+        (1 by default), and their priority (0 by default; higher
+        priorities take Voices from lower ones).
+    */
+    public void setLimits(final int key, final int maxVoices,
+        final int priority)
+    {
+        commands.offer(new Runnable() {
+            public void run() {
+                polyphony[key] = Math.max(maxVoices, 1);
+                priorities[key] = priority;
+            }
+        });
+    }
+
+    /**
+        Starts the mixer thread.
+    */
+    public synchronized void start() {
+        if (running)
+            return;
+        // the thread of a shutdown() must be gone, it uses the Voices
+        if (!waitForThread())
+            return;
+        running = true;
+        thread = new Thread("audio-mixer") {
+            public void run() {
+                mixLoop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+        Stops the mixer thread, and waits until it has mixed its last
+        buffer and closed the line.
+    */
+    public synchronized void shutdown() {
+        running = false;
+        waitForThread();
+    }
+
+    /**
+        Waits for the mixer thread to end. The thread is only
+        forgotten once it has ended. Returns false if interrupted.
+    */
+    private boolean waitForThread() {
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        thread = null;
+        return true;
+    }
+
+    /**
+        Starts playing a Sound, unless the key is paused. See the
+        class comment for what happens when no Voice is free.
+    */
+    public void play(final int key, final Sound sound) {
+        commands.offer(new Runnable() {
+            public void run() {
+                if (paused[key])
+                    return;
+                Voice voice = findVoice(key, sound);
+                if (voice == null) {
+                    droppedCount++;
+                    return;
+                }
+                if (!voice.isFinished())
+                    stolenCount++;
+                if (voice.start(key, sound, priorities[key], getPitch(key),
+                    serial++))
+                {
+                    playedCount++;
+                }
+            }
+        });
+    }
+
+    /**
+        Stops the Sounds with the specified key.
+    */
+    public void stop(final int key) {
+        commands.offer(new Runnable() {
+            public void run() {
+                for (Voice voice : voices) {
+                    if (voice.getKey() == key)
+                        voice.close();
+                }
+            }
+        });
+    }
+
+    /**
+        Stops every Sound.
+    */
+    public void stopAll() {
+        commands.offer(new Runnable() {
+            public void run() {
+                for (Voice voice : voices)
+                    voice.close();
+            }
+        });
+    }
+
+    /**
+        Pauses or resumes the Sounds with the specified key. While
+        paused, new Sounds with the key aren't started.
+    */
+    public void setPaused(final int key, final boolean pause) {
+        commands.offer(new Runnable() {
+            public void run() {
+                paused[key] = pause;
+                for (Voice voice : voices) {
+                    if (voice.getKey() == key)
+                        voice.setPaused(pause);
+                }
+            }
+        });
+    }
+
+    /**
+        Sets the playback rate factor of the Sounds with the
+        specified key, now and when they're played again. Playing
+        Sounds glide to it from the next buffer.
+    */
+    public void setPitch(int key, float pitch) {
+        pitches.set(key, Float.floatToIntBits(pitch));
+    }
+
+    /**
+        Gets the playback rate factor of the Sounds with the
+        specified key.
+    */
+    public float getPitch(int key) {
+        return Float.intBitsToFloat(pitches.get(key));
+    }
+
+    /**
+        Gets the number of Sounds started.
+    */
+    public long getPlayedCount() {
+        return playedCount;
+    }
+
+    /**
+        Gets the number of Sounds cut off to play another one.
+    */
+    public long getStolenCount() {
+        return stolenCount;
+    }
+
+    /**
+        Gets the number of Sounds not played because no Voice could
+        be taken.
+    */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+        Gets the number of times a streamed Sound ran out of decoded
+        samples and played silence.
+    */
+    public long getUnderrunCount() {
+        return decoder.getUnderrunCount();
+    }
+
+    /**
+        Gets a report of the Sounds played, stolen and dropped, and
+        of the music stream, or null if nothing was played.
+    */
+    public String getReport() {
+        if (playedCount == 0 && droppedCount == 0)
+            return null;
+        String report = String.format("Audio: %d sounds played, " +
+            "%d stolen, %d dropped, at most %d of %d voices at once",
+            playedCount, stolenCount, droppedCount, maxActive,
+            VOICE_COUNT);
+        String streamReport = decoder.getReport();
+        if (streamReport != null)
+            report += "\n" + streamReport;
+        return report;
+    }
+
+    /**
+        Finds the Voice to play a Sound with the specified key on: a
+        Voice of the same key if the key is at its limit, otherwise a
+        free Voice, otherwise the Voice to steal. Returns null if the
+        Sound should be dropped.
+    */
+    private Voice findVoice(int key, Sound sound) {
+        int count = 0;
+        Voice oldestOfKey = null;
+        Voice free = null;
+        Voice victim = null;
+        for (Voice voice : voices) {
+            if (voice.isFinished()) {
+                if (free == null)
+                    free = voice;
+            }
+            else if (voice.getKey() == key) {
+                count++;
+                if (oldestOfKey == null || voice.getSerial() < oldestOfKey.getSerial())
+                    oldestOfKey = voice;
+            }
+            else if (victim == null ||
+                voice.getPriority() < victim.getPriority() ||
+                (voice.getPriority() == victim.getPriority() &&
+                voice.getSerial() < victim.getSerial()))
+            {
+                victim = voice;
+            }
+        }
+
+        if (count >= polyphony[key]) {
+            // a looping sound goes on, others restart the oldest
+            return oldestOfKey.isLooping() ? null : oldestOfKey;
+        }
+        if (free != null)
+            return free;
+        if (victim != null && victim.getPriority() <= priorities[key])
+            return victim;
+        if (oldestOfKey != null && !oldestOfKey.isLooping())
+            return oldestOfKey;
+        return null;
+    }
+
+    private void mixLoop() {
+        openLine();
+        long bufferNanos = (long)(BUFFER_FRAMES * 1e9 / SAMPLE_RATE);
+        long nextTime = System.nanoTime();
+        while (running) {
+            mixBuffer();
+            if (line != null) {
+                line.write(output, 0, output.length);
+            }
+            else {
+                // no output, so keep the pace of one
+                nextTime += bufferNanos;
+                LockSupport.parkNanos(nextTime - System.nanoTime());
+            }
+        }
+
+        for (Voice voice : voices)
+            voice.close();
+        if (line != null) {
+            line.drain();
+            line.close();
+        }
+    }
+
+    private void openLine() {
+        try {
+            line = AudioSystem.getSourceDataLine(FORMAT);
+            line.open(FORMAT, output.length * LINE_BUFFERS);
+            line.start();
+        }
+        catch (LineUnavailableException | IllegalArgumentException ex) {
+            System.out.println("No audio output, sound is muted: " +
+                ex.getMessage());
+            line = null;
+        }
+    }
+
+    /**
+        Runs the queued commands, then sums the playing Voices into
+        the output buffer.
+    */
+    private void mixBuffer() {
+        Runnable command;
+        while ((command = commands.poll()) != null)
+            command.run();
+
+        for (int i = 0; i < mix.length; i++)
+            mix[i] = 0;
+        int active = 0;
+        for (Voice voice : voices) {
+            if (!voice.isFinished()) {
+                active++;
+                voice.setPitch(getPitch(voice.getKey()));
+                voice.mix(mix, BUFFER_FRAMES);
+            }
+        }
+        if (active > maxActive)
+            maxActive = active;
+
+        for (int i = 0; i < mix.length; i++) {
+            int sample = Math.round(mix[i]);
+            if (sample > Short.MAX_VALUE)
+                sample = Short.MAX_VALUE;
+            else if (sample < Short.MIN_VALUE)
+                sample = Short.MIN_VALUE;
+            output[i * 2] = (byte)sample;
+            output[i * 2 + 1] = (byte)(sample >> 8);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package AstrozleAudio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.sound.sampled.AudioInputStream;
+
+/**
+    PcmSamples is a whole Sound decoded into memory, as 16 bit
+    samples, mono or stereo (interleaved left and right). Sounds with
+    more channels are mixed down to mono. It's never changed after it's decoded, so every Voice
+    playing the Sound shares it and only keeps its own position: a
+    Voice of a decoded Sound reads no file and runs no decoder.
+*/
+class PcmSamples {
+    private final short[] samples;
+    private final int channels;
+    private final float sampleRate;
+
+    private PcmSamples(short[] samples, int channels, float sampleRate) {
+        this.samples = samples;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+        Reads a 16 bit PCM stream to the end.
+    */
+    static PcmSamples decode(AudioInputStream stream) throws IOException {
+        int channels = stream.getFormat().getChannels();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = stream.read(buffer)) >= 0)
+            bytes.write(buffer, 0, count);
+
+        byte[] data = bytes.toByteArray();
+        int frames = data.length / (channels * 2);
+        short[] samples = new short[frames * getOutputChannels(channels)];
+        convert(data, frames, channels, samples);
+        return new PcmSamples(samples, getOutputChannels(channels),
+            stream.getFormat().getSampleRate());
+    }
+
+    /**
+        Gets the number of channels a Sound with the specified
+        number of channels is played with: 2 for stereo, otherwise 1.
+    */
+    static int getOutputChannels(int channels) {
+        return (channels == 2) ? 2 : 1;
+    }
+
+    /**
+        Converts frames of 16 bit little-endian bytes to samples,
+        keeping mono and stereo, and mixing more channels down to
+        mono. Returns the number of samples.
+    */
+    static int convert(byte[] bytes, int frames, int channels, short[] samples) {
+        int count = frames * getOutputChannels(channels);
+        if (channels > 2) {
+            for (int i = 0; i < frames; i++)
+                samples[i] = (short)Math.round(getFrame(bytes, i * channels * 2, channels));
+        }
+        else {
+            for (int i = 0; i < count; i++)
+                samples[i] = (short)((bytes[i * 2 + 1] << 8) | (bytes[i * 2] & 0xff));
+        }
+        return count;
+    }
+
+    /**
+        Gets a 16 bit little-endian frame of bytes, starting at pos,
+        as the average of its channels.
+    */
+    static float getFrame(byte[] bytes, int pos, int channels) {
+        int sum = 0;
+        for (int c = 0; c < channels; c++) {
+            sum += (short)((bytes[pos + 1] << 8) | (bytes[pos] & 0xff));
+            pos += 2;
+        }
+        return (float)sum / channels;
+    }
+
+    /**
+        Gets the number of frames.
+    */
+    int getLength() {
+        return samples.length / channels;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    float getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+        Gets a sample of a frame. Channel 1 of a mono Sound is the
+        same as channel 0.
+    */
+    float get(int frame, int channel) {
+        return samples[frame * channels + Math.min(channel, channels - 1)];
+    }
+}
@@ -0,0 +1,134 @@
+package AstrozleAudio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+    A SampleRingBuffer passes 16 bit samples from one producer
+    thread to one consumer thread without locks. The producer writes
+    at the tail and the consumer reads at the head; each only moves
+    its own position, and publishes it with an ordered write, so the
+    other thread sees the samples before the new position.
+
+    <p>The samples of a frame are interleaved, and the producer sets
+    the number of channels (1 by default) before its first write.
+
+    <p>Writing never overwrites unread samples: write() and read()
+    return how many samples fit, and the caller decides whether to
+    wait. The producer calls end() after the last sample.
+*/
+public class SampleRingBuffer {
+    private final short[] samples;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean ended;
+    private volatile float sampleRate;
+    private volatile int channels = 1;
+
+    /**
+        Creates a new SampleRingBuffer holding at least the specified
+        number of samples (rounded up to a power of two).
+    */
+    public SampleRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+        samples = new short[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+        Gets the number of samples this buffer holds.
+    */
+    public int getCapacity() {
+        return samples.length;
+    }
+
+    /**
+        Gets the number of samples written and not read yet.
+    */
+    public int available() {
+        return (int)(tail.get() - head.get());
+    }
+
+    /**
+        Writes up to len samples from the array, and returns how many
+        were written. Called by the producer only.
+    */
+    public int write(short[] src, int offset, int len) {
+        long t = tail.get();
+        int count = Math.min(len, samples.length - (int)(t - head.get()));
+        int start = (int)t & mask;
+        int first = Math.min(count, samples.length - start);
+        System.arraycopy(src, offset, samples, start, first);
+        System.arraycopy(src, offset + first, samples, 0, count - first);
+        tail.lazySet(t + count);
+        return count;
+    }
+
+    /**
+        Reads up to len samples into the array, and returns how many
+        were read. Called by the consumer only.
+    */
+    public int read(short[] dst, int offset, int len) {
+        long h = head.get();
+        int count = Math.min(len, (int)(tail.get() - h));
+        int start = (int)h & mask;
+        int first = Math.min(count, samples.length - start);
+        System.arraycopy(samples, start, dst, offset, first);
+        System.arraycopy(samples, 0, dst, offset + first, count - first);
+        head.lazySet(h + count);
+        return count;
+    }
+
+    /**
+        Marks the end of the samples. Called by the producer after
+        its last write.
+    */
+    public void end() {
+        ended = true;
+    }
+
+    /**
+        Checks if the producer wrote its last sample.
+    */
+    public boolean isEnded() {
+        return ended;
+    }
+
+    /**
+        Checks if every sample was written and read.
+    */
+    public boolean isFinished() {
+        return ended && available() == 0;
+    }
+
+    /**
+        Gets the sample rate of the samples, or 0 if the producer
+        hasn't set it yet.
+    */
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+        Sets the sample rate of the samples. Called by the producer
+        before its first write.
+    */
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+        Gets the number of interleaved channels.
+    */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+        Sets the number of interleaved channels. Called by the
+        producer before its first write.
+    */
+    public void setChannels(int channels) {
+        this.channels = channels;
+    }
+}
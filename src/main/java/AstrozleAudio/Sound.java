@@ -19,6 +19,7 @@ public class Sound {
     private int pos;
     private int loops;
     private byte[] buffer;
+    private PcmSamples samples;
     
     public static final int BUFFER_SIZE = 24 * 1024;
     public static final byte[] ZERO = new byte[BUFFER_SIZE];
@@ -91,6 +92,39 @@ public class Sound {
         finished = false;
     }
 
+    // decodes the whole sound into memory once, so the AudioMixer
+    // plays it without opening the file again
+    synchronized void decode() {
+        if (samples != null)
+            return;
+        try (AudioInputStream pcm = openStream()) {
+            samples = PcmSamples.decode(pcm);
+        } catch (IOException | UnsupportedAudioFileException e) {
+            throw new RuntimeException("Sound exception : " + e);
+        }
+    }
+
+    // gets the number of channels of the sound
+    synchronized int getChannels() {
+        return format.getChannels();
+    }
+
+    // gets the decoded sound, or null if it's streamed
+    synchronized PcmSamples getSamples() {
+        return samples;
+    }
+
+    // opens a new 16 bit PCM stream of this sound, for the AudioMixer
+    AudioInputStream openStream() throws IOException, UnsupportedAudioFileException {
+        AudioInputStream source = AudioSystem.getAudioInputStream(new File(fullPath));
+        AudioFormat inFormat = source.getFormat();
+        final int ch = inFormat.getChannels();
+        final float sampleRate = inFormat.getSampleRate();
+        return AudioSystem.getAudioInputStream(
+            new AudioFormat(PCM_SIGNED, sampleRate, 16, ch, ch * 2, sampleRate, false),
+            source);
+    }
+
     public synchronized void changePitch(float factor) {
         try {
             format = getOutFormat(rate * factor);
@@ -0,0 +1,274 @@
+package AstrozleAudio;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+    The StreamDecoder decodes a streamed Sound (the music) on its
+    own thread, ahead of playback, into a SampleRingBuffer that a
+    Voice plays from. Opening the file, decoding, and starting the
+    next loop never happen on the mixer thread, and since the next
+    loop is decoded into the same ring right after the last samples
+    of the previous one, looping leaves no gap.
+
+    <p>One Sound is decoded at a time: starting another one ends the
+    ring of the previous one.
+
+    <p>The decoder never drops samples: when the ring is full, it
+    waits for the mixer. It counts underruns (times the mixer found
+    the ring empty before its end, and played silence), and keeps the
+    lowest fill of the ring seen by the mixer. Underruns mean the
+    ring is too small for the machine; a lowest fill far above zero
+    means it could be smaller. Set the size of the ring with
+    -Dastrozle.musicBufferMillis (default 500).
+*/
+class StreamDecoder {
+    /**
+        Default length of the ring, in milliseconds at the highest
+        sample rate expected (rounded up to a power of two samples).
+    */
+    public static final int DEFAULT_BUFFER_MILLIS = 500;
+
+    private static final float MAX_SAMPLE_RATE = 48000;
+    private static final int READ_SIZE = 4096;
+    private static final long WAIT_NANOS = 2000000;
+
+    // length of a ring, in frames
+    private final int capacity;
+    private final byte[] bytes = new byte[READ_SIZE];
+    private final short[] decoded = new short[READ_SIZE / 2];
+    private Thread thread;
+    private volatile Job job;
+
+    // statistics
+    private volatile long underrunCount;
+    private volatile float lowestFillMillis = Float.MAX_VALUE;
+    private volatile float ringMillis;
+
+    /**
+        A Sound to decode, and the ring it's decoded into.
+    */
+    private static class Job {
+        final Sound sound;
+        final SampleRingBuffer ring;
+        int loops;
+
+        Job(Sound sound, SampleRingBuffer ring) {
+            this.sound = sound;
+            this.ring = ring;
+            this.loops = sound.getLoops();
+        }
+    }
+
+    StreamDecoder() {
+        int millis = Integer.getInteger("astrozle.musicBufferMillis",
+            DEFAULT_BUFFER_MILLIS);
+        capacity = Math.round(MAX_SAMPLE_RATE * Math.max(millis, 10) / 1000);
+    }
+
+    /**
+        Starts decoding a Sound, and returns the ring it's decoded
+        into. Called by the mixer thread.
+    */
+    synchronized SampleRingBuffer start(Sound sound) {
+        Job old = job;
+        if (old != null)
+            old.ring.end();
+        int channels = PcmSamples.getOutputChannels(sound.getChannels());
+        SampleRingBuffer ring = new SampleRingBuffer(capacity * channels);
+        ring.setChannels(channels);
+        Job newJob = new Job(sound, ring);
+        job = newJob;
+        if (thread == null) {
+            thread = new Thread("audio-decoder") {
+                public void run() {
+                    decodeLoop();
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+        LockSupport.unpark(thread);
+        return newJob.ring;
+    }
+
+    /**
+        Stops decoding into the specified ring. Called by the mixer
+        thread when the Voice playing it stops.
+    */
+    synchronized void stop(SampleRingBuffer ring) {
+        Job current = job;
+        if (current != null && current.ring == ring)
+            job = null;
+        ring.end();
+    }
+
+    /**
+        Counts an underrun. Called by the mixer thread.
+    */
+    void countUnderrun() {
+        underrunCount++;
+    }
+
+    /**
+        Remembers how full a ring was when the mixer read from it,
+        unless it's draining after the last sample.
+    */
+    void noteFill(SampleRingBuffer ring) {
+        if (ring.isEnded())
+            return;
+        float samplesPerSecond = ring.getSampleRate() * ring.getChannels();
+        float millis = ring.available() * 1000 / samplesPerSecond;
+        ringMillis = ring.getCapacity() * 1000 / samplesPerSecond;
+        if (millis < lowestFillMillis)
+            lowestFillMillis = millis;
+    }
+
+    long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    /**
+        Gets a report of the ring size, underruns and the lowest
+        fill, or null if nothing was streamed.
+    */
+    String getReport() {
+        if (lowestFillMillis == Float.MAX_VALUE)
+            return null;
+        return String.format("Music stream: %.0f ms ring, %d underruns, " +
+            "lowest fill %.1f ms", ringMillis, underrunCount,
+            lowestFillMillis);
+    }
+
+    private void decodeLoop() {
+        Job current = null;
+        AudioInputStream stream = null;
+        int pending = 0;
+        int pendingOffset = 0;
+
+        while (true) {
+            Job next = job;
+            if (next != current) {
+                // a new sound, or stopped
+                stream = close(stream);
+                current = next;
+                pending = 0;
+                if (current != null) {
+                    stream = open(current);
+                    if (stream == null) {
+                        finish(current);
+                        current = null;
+                    }
+                }
+            }
+            if (current == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            if (pending == 0) {
+                // decode the next block
+                pending = decode(stream);
+                pendingOffset = 0;
+                if (pending < 0) {
+                    pending = 0;
+                    stream = close(stream);
+                    if (current.loops == 0) {
+                        finish(current);
+                        current = null;
+                        continue;
+                    }
+                    // 0 plays once, -1 loops forever
+                    if (current.loops > 0)
+                        current.loops--;
+                    stream = open(current);
+                    if (stream == null) {
+                        finish(current);
+                        current = null;
+                    }
+                    continue;
+                }
+            }
+
+            int written = current.ring.write(decoded, pendingOffset, pending);
+            pendingOffset += written;
+            pending -= written;
+            if (pending > 0) {
+                // the ring is full, wait for the mixer to read some
+                LockSupport.parkNanos(this, WAIT_NANOS);
+            }
+        }
+    }
+
+    private AudioInputStream open(Job job) {
+        try {
+            AudioInputStream stream = job.sound.openStream();
+            job.ring.setSampleRate(stream.getFormat().getSampleRate());
+            return stream;
+        }
+        catch (IOException | UnsupportedAudioFileException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    private AudioInputStream close(AudioInputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            }
+            catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+        Ends the ring of a job, and forgets the job if it's still
+        the current one.
+    */
+    private synchronized void finish(Job finished) {
+        finished.ring.end();
+        if (job == finished)
+            job = null;
+    }
+
+    /**
+        Reads whole frames from the stream into the decoded array,
+        as mono or stereo samples. Returns the number of samples, or
+        -1 at the end of the stream.
+    */
+    private int decode(AudioInputStream stream) {
+        int channels = stream.getFormat().getChannels();
+        int frameSize = channels * 2;
+        int count = 0;
+        try {
+            while (count < frameSize) {
+                int read = stream.read(bytes, count,
+                    bytes.length / frameSize * frameSize - count);
+                if (read < 0)
+                    break;
+                count += read;
+            }
+            // finish a partial frame
+            while (count % frameSize != 0) {
+                int read = stream.read(bytes, count, frameSize - count % frameSize);
+                if (read < 0)
+                    break;
+                count += read;
+            }
+        }
+        catch (IOException ex) {
+            ex.printStackTrace();
+            return -1;
+        }
+        int frames = count / frameSize;
+        if (frames == 0)
+            return -1;
+        return PcmSamples.convert(bytes, frames, channels, decoded);
+    }
+}
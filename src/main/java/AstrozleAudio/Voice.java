@@ -0,0 +1,285 @@
+package AstrozleAudio;
+
+/**
+    A Voice is one Sound playing in the AudioMixer. It reads the
+    16 bit PCM of the Sound (mono, which plays on both channels, or
+    stereo), and resamples it to the rate of the mixer by linear
+    interpolation, so Sounds of any sample rate (and pitch) can be
+    summed into the same stereo buffer.
+
+    <p>A Sound decoded into memory is read from its shared
+    PcmSamples with a cursor. Other Sounds (the music) are decoded
+    ahead by the StreamDecoder, and read from its SampleRingBuffer.
+    The Voice stays silent until half the ring is decoded, and
+    plays silence (an underrun) if the ring runs empty before its end.
+
+    <p>The pitch is a playback rate factor applied by the same
+    resampling. setPitch() only sets the target: the pitch glides to
+    it sample by sample, with a time constant of PITCH_GLIDE_MILLIS,
+    so a change never clicks and costs nothing extra per buffer.
+
+    <p>Voices are made once by the mixer and reused: start() plays
+    a new Sound on an idle (finished) Voice. A Voice is only used by
+    the mixer thread.
+*/
+class Voice {
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+        Time constant of the pitch glide, in milliseconds.
+    */
+    static final float PITCH_GLIDE_MILLIS = 40;
+
+    private final float mixRate;
+    private final float glide;
+    private final StreamDecoder decoder;
+    private int key;
+    private int priority;
+    private long serial;
+    private PcmSamples samples;
+    private int cursor;
+
+    private SampleRingBuffer ring;
+    private short[] block;
+    private int blockCount;
+    private int blockPos;
+    private boolean primed;
+    private boolean starved;
+
+    private float sourceRate;
+    private int channels;
+    private int loops;
+    private float pitch = 1;
+    private float targetPitch = 1;
+    private boolean paused;
+    private boolean finished = true;
+
+    // the frames around the output position, and how far between
+    // them it is (0 to 1)
+    private float left0;
+    private float right0;
+    private float left1;
+    private float right1;
+    private float position;
+
+    /**
+        Creates a new, idle Voice for a mixer of the specified sample
+        rate, which streams through the specified decoder.
+    */
+    Voice(float mixRate, StreamDecoder decoder) {
+        this.mixRate = mixRate;
+        this.decoder = decoder;
+        // the part of the way to the target pitch covered per frame
+        glide = (float)(1 - Math.exp(-1000 / (PITCH_GLIDE_MILLIS * mixRate)));
+    }
+
+    /**
+        Starts playing a Sound on this Voice, stopping what it played
+        before, at the specified pitch (without a glide). The key is
+        what the mixer knows the Sound by, and the serial number
+        orders the Voices by age. Returns false if the Sound can't be
+        read.
+    */
+    boolean start(int key, Sound sound, int priority, float pitch,
+        long serial)
+    {
+        close();
+        this.key = key;
+        this.priority = priority;
+        this.serial = serial;
+        loops = sound.getLoops();
+        samples = sound.getSamples();
+        cursor = 0;
+        this.pitch = pitch;
+        targetPitch = pitch;
+        paused = false;
+        finished = false;
+        starved = false;
+
+        if (samples == null) {
+            // primed in mix() once the decoder has samples
+            if (block == null)
+                block = new short[BLOCK_SIZE];
+            blockCount = 0;
+            blockPos = 0;
+            primed = false;
+            ring = decoder.start(sound);
+            return true;
+        }
+        if (samples.getLength() == 0) {
+            finished = true;
+            return false;
+        }
+        sourceRate = samples.getSampleRate();
+        channels = samples.getChannels();
+        prime();
+        return !finished;
+    }
+
+    /**
+        Reads the first two frames and sets the source rate.
+    */
+    private void prime() {
+        if (ring != null) {
+            sourceRate = ring.getSampleRate();
+            channels = ring.getChannels();
+        }
+        left1 = 0;
+        right1 = 0;
+        position = 0;
+        advance();
+        advance();
+    }
+
+    int getKey() {
+        return key;
+    }
+
+    int getPriority() {
+        return priority;
+    }
+
+    long getSerial() {
+        return serial;
+    }
+
+    boolean isLooping() {
+        return loops != 0;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+        Sets the playback rate factor to glide to: 2 plays an octave
+        higher and twice as fast.
+    */
+    void setPitch(float pitch) {
+        targetPitch = pitch;
+    }
+
+    /**
+        Adds the next frames of this Voice to the mix buffer, which
+        holds interleaved left and right samples.
+    */
+    void mix(float[] mix, int frames) {
+        if (paused || finished)
+            return;
+        if (ring != null) {
+            if (!primed) {
+                // wait for half a ring, or the whole Sound if shorter
+                if (ring.available() < ring.getCapacity() / 2 &&
+                    !ring.isEnded())
+                {
+                    return;
+                }
+                if (ring.available() < 2 * ring.getChannels()) {
+                    close();
+                    return;
+                }
+                primed = true;
+                prime();
+            }
+            if (starved) {
+                // stay silent until the decoder catches up
+                if (!advance())
+                    return;
+                position -= 1;
+            }
+            decoder.noteFill(ring);
+        }
+        float rate = sourceRate / mixRate;
+        boolean gliding = pitch != targetPitch;
+        for (int i = 0; i < frames; i++) {
+            mix[i * 2] += left0 + (left1 - left0) * position;
+            mix[i * 2 + 1] += right0 + (right1 - right0) * position;
+            if (gliding) {
+                pitch += (targetPitch - pitch) * glide;
+                if (Math.abs(targetPitch - pitch) < 0.0001f) {
+                    pitch = targetPitch;
+                    gliding = false;
+                }
+            }
+            position += rate * pitch;
+            while (position >= 1) {
+                if (!advance()) {
+                    // starved: resume from frame 1, not past it,
+                    // once the next frame is decoded
+                    position = 1;
+                    return;
+                }
+                position -= 1;
+            }
+        }
+    }
+
+    /**
+        Stops this Voice, and its decoding if it streams.
+    */
+    void close() {
+        finished = true;
+        if (ring != null) {
+            decoder.stop(ring);
+            ring = null;
+        }
+    }
+
+    /**
+        Moves to the next source frame. Returns false and finishes
+        the Voice at the end of the Sound, or returns false and stays
+        in place (silent for the rest of the buffer) if the decoder
+        is behind.
+    */
+    private boolean advance() {
+        float left;
+        float right;
+        if (ring == null) {
+            if (cursor == samples.getLength()) {
+                // 0 plays once, -1 loops forever
+                if (loops == 0) {
+                    close();
+                    return false;
+                }
+                if (loops > 0)
+                    loops--;
+                cursor = 0;
+            }
+            left = samples.get(cursor, 0);
+            right = samples.get(cursor, 1);
+            cursor++;
+        }
+        else {
+            if (blockPos == blockCount) {
+                // whole frames only
+                int count = Math.min(ring.available(), block.length);
+                blockCount = ring.read(block, 0, count - count % channels);
+                blockPos = 0;
+                if (blockCount == 0) {
+                    // the decoder loops the Sound itself
+                    if (ring.isFinished()) {
+                        close();
+                    }
+                    else if (!starved) {
+                        starved = true;
+                        decoder.countUnderrun();
+                    }
+                    return false;
+                }
+                starved = false;
+            }
+            left = block[blockPos];
+            right = block[blockPos + channels - 1];
+            blockPos += channels;
+        }
+        left0 = left1;
+        right0 = right1;
+        left1 = left;
+        right1 = right;
+        return true;
+    }
+}
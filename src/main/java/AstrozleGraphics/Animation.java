@@ -61,6 +61,53 @@ public class Animation {
             return getFrame(currFrameIndex).image;
     }
 
+    /**
+        Gets the Image of the specified frame, or null if this
+        Animation has no frames.
+    */
+    Image getImage(int frameIndex) {
+        return frames.isEmpty() ? null : getFrame(frameIndex).image;
+    }
+
+    long getTotalDuration() {
+        return totalDuration;
+    }
+
+    synchronized int getFrameIndex() {
+        return currFrameIndex;
+    }
+
+    synchronized long getAnimTime() {
+        return animTime;
+    }
+
+    /**
+        Moves this Animation to the specified frame and time.
+    */
+    synchronized void setCursor(int frameIndex, long animTime) {
+        this.currFrameIndex = frameIndex;
+        this.animTime = animTime;
+    }
+
+    /**
+        Finds the frame shown at the specified time (less than the
+        total duration), searching forward from frameIndex. Lets an
+        EntityStore keep the frame and time of many Sprites sharing
+        the frames of this Animation.
+    */
+    int findFrame(int frameIndex, long animTime) {
+        while (animTime > getFrame(frameIndex).endTime)
+            frameIndex++;
+        return frameIndex;
+    }
+
+    /**
+        Gets the time the specified frame is shown until.
+    */
+    long getFrameEndTime(int frameIndex) {
+        return getFrame(frameIndex).endTime;
+    }
+
     private AnimFrame getFrame(int i) {
         return (AnimFrame)frames.get(i);
     }
@@ -0,0 +1,181 @@
+package AstrozleGraphics;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+/**
+    The AssetPipeline class decodes images on a pool of worker
+    threads, one per core. Every image and every mirrored or flipped
+    variant is requested as a CompletableFuture and decoded only once,
+    so callers can request all they need up front and join the
+    results later, and loading can start (for example, while the menu
+    is shown) before the game needs the images.
+*/
+public class AssetPipeline {
+    public static final String IMAGE_PATH = "images/";
+
+    private static final AssetPipeline shared = new AssetPipeline();
+
+    private final ExecutorService pool;
+    private final ConcurrentHashMap<String, CompletableFuture<Image>> images;
+    private final AtomicInteger requested = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final ImageManager imageManager = ImageManager.getShared();
+
+    /**
+        Gets the AssetPipeline shared by the menu and the game.
+    */
+    public static AssetPipeline getShared() {
+        return shared;
+    }
+
+    /**
+        Creates a new AssetPipeline with one worker per core.
+    */
+    public AssetPipeline() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r,
+                        "asset-loader-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        images = new ConcurrentHashMap<>();
+    }
+
+    /**
+        Sets the GraphicsConfiguration used to create the mirrored
+        and flipped variants. By default, the configuration of the
+        default screen is used.
+    */
+    public void setGraphicsConfiguration(GraphicsConfiguration gc) {
+        imageManager.setGraphicsConfiguration(gc);
+    }
+
+    /**
+        Requests an image from the images/ directory. The image is
+        converted to a managed image compatible with the screen.
+    */
+    public CompletableFuture<Image> image(final String name) {
+        return images.computeIfAbsent(name,
+            key -> track(CompletableFuture.supplyAsync(
+                () -> imageManager.manage(name, decode(IMAGE_PATH + name)),
+                pool)));
+    }
+
+    /**
+        Requests a variant of an image from the images/ directory,
+        mirrored left-to-right and/or flipped upside down. The
+        variant is made as soon as the image is decoded.
+    */
+    public CompletableFuture<Image> variant(final String name,
+        final boolean mirror, final boolean flip)
+    {
+        if (!mirror && !flip)
+            return image(name);
+
+        // request the source outside of computeIfAbsent, which
+        // must not update the map recursively
+        final CompletableFuture<Image> source = image(name);
+        return images.computeIfAbsent(variantKey(name, mirror, flip),
+            k -> track(source.thenApplyAsync(
+                image -> imageManager.manage(k,
+                    getScaledImage(image, mirror ? -1 : 1, flip ? -1 : 1)),
+                pool)));
+    }
+
+    /**
+        Gets the key of an image variant, as used by put().
+    */
+    public static String variantKey(String name, boolean mirror,
+        boolean flip)
+    {
+        return name + (mirror ? "#mirror" : "") + (flip ? "#flip" : "");
+    }
+
+    /**
+        Adds an image (or variant) that was made elsewhere, for
+        example read from a SpriteAtlas. Does nothing if the image
+        was already requested.
+    */
+    public void put(String key, Image image) {
+        images.putIfAbsent(key, CompletableFuture.completedFuture(
+            imageManager.manage(key, image)));
+    }
+
+    /**
+        Requests every image with the specified names. The returned
+        future completes when all of them are decoded.
+    */
+    public CompletableFuture<Void> preload(String... names) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[names.length];
+        for (int i = 0; i < names.length; i++)
+            futures[i] = image(names[i]);
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+        Gets the fraction (0 to 1) of requested images that are
+        done.
+    */
+    public float getProgress() {
+        int total = requested.get();
+        return (total == 0) ? 1f : (float)completed.get() / total;
+    }
+
+    private CompletableFuture<Image> track(CompletableFuture<Image> future) {
+        requested.incrementAndGet();
+        future.whenComplete((image, ex) -> completed.incrementAndGet());
+        return future;
+    }
+
+    private Image decode(String filename) {
+        File file = new File(filename);
+        if (file.exists()) {
+            try {
+                BufferedImage image = ImageIO.read(file);
+                if (image != null)
+                    return image;
+            }
+            catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        // missing or unreadable, behave like the toolkit loader
+        return new ImageIcon(filename).getImage();
+    }
+
+    private Image getScaledImage(Image image, float x, float y) {
+        // set up the transform
+        AffineTransform transform = new AffineTransform();
+        transform.scale(x, y);
+        transform.translate(
+            (x-1) * image.getWidth(null) / 2,
+            (y-1) * image.getHeight(null) / 2);
+
+        // create a transparent (not translucent) image
+        Image newImage = imageManager.createCompatibleImage(
+            image.getWidth(null),
+            image.getHeight(null),
+            Transparency.BITMASK);
+
+        // draw the transformed image
+        Graphics2D g = (Graphics2D)newImage.getGraphics();
+        g.drawImage(image, transform, null);
+        g.dispose();
+
+        return newImage;
+    }
+}
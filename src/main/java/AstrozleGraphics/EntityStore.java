@@ -0,0 +1,373 @@
+package AstrozleGraphics;
+
+import java.awt.Image;
+import java.util.Arrays;
+
+/**
+    An EntityStore keeps the state of many Sprites in parallel
+    arrays indexed by entity id: the position and the position at the
+    start of the tick, the velocity, the bounds of the current frame,
+    the state, and the animation cursor (the current Animation, frame
+    and time).
+
+    <p>A Sprite added to a store becomes a view of its entity:
+    getX(), getWidth() and the other methods read and write the
+    arrays, so existing code works unchanged, but a loop over the
+    Sprites reads a few arrays instead of following every Sprite, its
+    Animation and its Image around the heap. Loops over every entity,
+    like savePositions(), run over the arrays directly.
+
+    <p>Ids go from 0 to size() - 1, with no gaps. Removing a Sprite
+    moves the last entity into its place, so removal takes constant
+    time but changes the id of that entity. Code that needs to keep
+    a reference to an entity keeps its handle instead: a handle
+    never changes while the entity is in the store, and lookup()
+    returns null for the handle of a removed entity, even after its
+    slot is reused.
+*/
+public class EntityStore {
+    /**
+        Flag of an entity whose Sprite doesn't override update(), so
+        update(int, long) can update it from the arrays. The other
+        flags are up to the Sprite (see Creature).
+    */
+    public static final int FLAG_DEFAULT_UPDATE = 1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // a handle is a slot in the handle table and the generation of
+    // the slot, which changes every time the slot is freed
+    private static final int HANDLE_SLOT_BITS = 20;
+    private static final int HANDLE_SLOT_MASK = (1 << HANDLE_SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - HANDLE_SLOT_BITS)) - 1;
+
+    float[] x = new float[INITIAL_CAPACITY];
+    float[] y = new float[INITIAL_CAPACITY];
+    float[] prevX = new float[INITIAL_CAPACITY];
+    float[] prevY = new float[INITIAL_CAPACITY];
+    float[] dx = new float[INITIAL_CAPACITY];
+    float[] dy = new float[INITIAL_CAPACITY];
+    int[] width = new int[INITIAL_CAPACITY];
+    int[] height = new int[INITIAL_CAPACITY];
+    private int[] state = new int[INITIAL_CAPACITY];
+    private long[] stateTime = new long[INITIAL_CAPACITY];
+    private int[] flags = new int[INITIAL_CAPACITY];
+    Animation[] anims = new Animation[INITIAL_CAPACITY];
+    int[] animFrame = new int[INITIAL_CAPACITY];
+    long[] animTime = new long[INITIAL_CAPACITY];
+    // the animation time the current frame is left at
+    private long[] frameEnd = new long[INITIAL_CAPACITY];
+    private Sprite[] sprites = new Sprite[INITIAL_CAPACITY];
+    private int[] handles = new int[INITIAL_CAPACITY];
+    private int size;
+
+    // per handle slot: the id of the entity, or the next free slot
+    private int[] slotIds = new int[INITIAL_CAPACITY];
+    private int[] slotGenerations = new int[INITIAL_CAPACITY];
+    private int slotCount;
+    private int freeSlot = -1;
+
+    /**
+        Gets the number of entities in this store.
+    */
+    public int size() {
+        return size;
+    }
+
+    /**
+        Gets the Sprite of the specified entity.
+    */
+    public Sprite get(int id) {
+        return sprites[id];
+    }
+
+    /**
+        Gets the handle of the specified entity.
+    */
+    public int getHandle(int id) {
+        return handles[id];
+    }
+
+    /**
+        Gets the Sprite of the entity with the specified handle, or
+        null if it was removed.
+    */
+    public Sprite lookup(int handle) {
+        int slot = handle & HANDLE_SLOT_MASK;
+        if (handle < 0 || slot >= slotCount ||
+            (handle >>> HANDLE_SLOT_BITS) != slotGenerations[slot])
+        {
+            return null;
+        }
+        return sprites[slotIds[slot]];
+    }
+
+    /**
+        Adds a Sprite to this store, copying its state into the
+        arrays, and returns its id. From now on, the Sprite reads and
+        writes its state in this store.
+    */
+    public int add(Sprite sprite) {
+        if (sprite.getStore() != null)
+            throw new IllegalArgumentException("Sprite already in a store");
+        if (size == sprites.length)
+            grow(size * 2);
+        // bind first, so a Sprite that refuses leaves the store as it was
+        int id = size;
+        sprite.bind(this, id);
+        size++;
+        sprites[id] = sprite;
+        handles[id] = allocateHandle(id);
+        return id;
+    }
+
+    /**
+        Removes a Sprite from this store in constant time, copying
+        its state back into the Sprite. The last entity takes the id
+        of the removed one. Does nothing if the Sprite isn't in this
+        store.
+    */
+    public void remove(Sprite sprite) {
+        if (sprite.getStore() != this)
+            return;
+        int id = sprite.getId();
+        sprite.unbind();
+        freeHandle(handles[id]);
+
+        int last = --size;
+        if (id != last) {
+            x[id] = x[last];
+            y[id] = y[last];
+            prevX[id] = prevX[last];
+            prevY[id] = prevY[last];
+            dx[id] = dx[last];
+            dy[id] = dy[last];
+            width[id] = width[last];
+            height[id] = height[last];
+            state[id] = state[last];
+            stateTime[id] = stateTime[last];
+            flags[id] = flags[last];
+            anims[id] = anims[last];
+            animFrame[id] = animFrame[last];
+            animTime[id] = animTime[last];
+            frameEnd[id] = frameEnd[last];
+            sprites[id] = sprites[last];
+            handles[id] = handles[last];
+            slotIds[handles[id] & HANDLE_SLOT_MASK] = id;
+            sprites[id].setId(id);
+        }
+        anims[last] = null;
+        sprites[last] = null;
+    }
+
+    /**
+        Remembers the current position of every entity as the start
+        of the next tick.
+    */
+    public void savePositions() {
+        System.arraycopy(x, 0, prevX, 0, size);
+        System.arraycopy(y, 0, prevY, 0, size);
+    }
+
+    /**
+        Gets the state of the specified entity. The meaning of the
+        state is up to the Sprite (see Creature).
+    */
+    public int getState(int id) {
+        return state[id];
+    }
+
+    public void setState(int id, int state) {
+        this.state[id] = state;
+    }
+
+    /**
+        Gets the time spent in the current state by the specified
+        entity.
+    */
+    public long getStateTime(int id) {
+        return stateTime[id];
+    }
+
+    public void setStateTime(int id, long stateTime) {
+        this.stateTime[id] = stateTime;
+    }
+
+    /**
+        Gets the flags of the specified entity.
+    */
+    public int getFlags(int id) {
+        return flags[id];
+    }
+
+    public void setFlags(int id, int flags) {
+        this.flags[id] = flags;
+    }
+
+    public float getX(int id) {
+        return x[id];
+    }
+
+    public void setX(int id, float x) {
+        this.x[id] = x;
+    }
+
+    public float getY(int id) {
+        return y[id];
+    }
+
+    public void setY(int id, float y) {
+        this.y[id] = y;
+    }
+
+    public float getVelocityX(int id) {
+        return dx[id];
+    }
+
+    public void setVelocityX(int id, float dx) {
+        this.dx[id] = dx;
+    }
+
+    public float getVelocityY(int id) {
+        return dy[id];
+    }
+
+    public void setVelocityY(int id, float dy) {
+        this.dy[id] = dy;
+    }
+
+    /**
+        Gets the width of the current Image of an entity.
+    */
+    public int getWidth(int id) {
+        return width[id];
+    }
+
+    /**
+        Gets the height of the current Image of an entity.
+    */
+    public int getHeight(int id) {
+        return height[id];
+    }
+
+    /**
+        Updates an entity the way Sprite.update() does: moves it by
+        its velocity, and moves its animation cursor.
+    */
+    public void update(int id, long elapsedTime) {
+        x[id] += dx[id] * elapsedTime;
+        y[id] += dy[id] * elapsedTime;
+        updateAnimation(id, elapsedTime);
+    }
+
+    /**
+        Switches an entity to the start of the specified Animation.
+    */
+    void setAnimation(int id, Animation anim) {
+        anims[id] = anim;
+        animFrame[id] = 0;
+        animTime[id] = 0;
+        updateBounds(id);
+    }
+
+    /**
+        Moves the animation cursor of an entity by the elapsed time,
+        the same way Animation.update() does. Until the current frame
+        ends, only the time moves, and the Animation isn't read.
+    */
+    public void updateAnimation(int id, long elapsedTime) {
+        long time = animTime[id] + elapsedTime;
+        if (time < frameEnd[id]) {
+            animTime[id] = time;
+            return;
+        }
+        Animation anim = anims[id];
+        if (anim.getSize() > 1) {
+            int frame = animFrame[id];
+            if (time >= anim.getTotalDuration()) {
+                time = time % anim.getTotalDuration();
+                frame = 0;
+            }
+            frame = anim.findFrame(frame, time);
+            animTime[id] = time;
+            if (frame != animFrame[id]) {
+                animFrame[id] = frame;
+                updateBounds(id);
+            }
+        }
+    }
+
+    /**
+        Gets the current Image of an entity.
+    */
+    Image getImage(int id) {
+        return anims[id].getImage(animFrame[id]);
+    }
+
+    /**
+        Reads the bounds of an entity from its current Image, and
+        the time its current frame ends at.
+    */
+    void updateBounds(int id) {
+        Image image = getImage(id);
+        width[id] = (image == null) ? 0 : image.getWidth(null);
+        height[id] = (image == null) ? 0 : image.getHeight(null);
+
+        // a single frame never changes, and the last one wraps
+        // around at the total duration
+        Animation anim = anims[id];
+        int frame = animFrame[id];
+        if (anim.getSize() <= 1)
+            frameEnd[id] = Long.MIN_VALUE;
+        else if (frame == anim.getSize() - 1)
+            frameEnd[id] = anim.getTotalDuration();
+        else
+            frameEnd[id] = anim.getFrameEndTime(frame) + 1;
+    }
+
+    private int allocateHandle(int id) {
+        int slot;
+        if (freeSlot >= 0) {
+            slot = freeSlot;
+            freeSlot = slotIds[slot];
+        }
+        else {
+            if (slotCount > HANDLE_SLOT_MASK)
+                throw new IllegalStateException("Too many entities");
+            if (slotCount == slotIds.length) {
+                slotIds = Arrays.copyOf(slotIds, slotCount * 2);
+                slotGenerations = Arrays.copyOf(slotGenerations, slotCount * 2);
+            }
+            slot = slotCount++;
+        }
+        slotIds[slot] = id;
+        return (slotGenerations[slot] << HANDLE_SLOT_BITS) | slot;
+    }
+
+    private void freeHandle(int handle) {
+        int slot = handle & HANDLE_SLOT_MASK;
+        slotGenerations[slot] = (slotGenerations[slot] + 1) & GENERATION_MASK;
+        slotIds[slot] = freeSlot;
+        freeSlot = slot;
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        prevX = Arrays.copyOf(prevX, capacity);
+        prevY = Arrays.copyOf(prevY, capacity);
+        dx = Arrays.copyOf(dx, capacity);
+        dy = Arrays.copyOf(dy, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        state = Arrays.copyOf(state, capacity);
+        stateTime = Arrays.copyOf(stateTime, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        anims = Arrays.copyOf(anims, capacity);
+        animFrame = Arrays.copyOf(animFrame, capacity);
+        animTime = Arrays.copyOf(animTime, capacity);
+        frameEnd = Arrays.copyOf(frameEnd, capacity);
+        sprites = Arrays.copyOf(sprites, capacity);
+        handles = Arrays.copyOf(handles, capacity);
+    }
+}
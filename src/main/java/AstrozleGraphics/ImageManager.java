@@ -0,0 +1,231 @@
+package AstrozleGraphics;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+    The ImageManager class turns loaded images into managed images
+    in the pixel format of the screen, with the smallest transparency
+    mode that fits their pixels (OPAQUE, BITMASK or TRANSLUCENT), so
+    Java2D can cache them in video memory and blit them on the fast
+    path of the OpenGL, Direct3D or XRender pipelines.
+
+    <p>Hot images, drawn full-screen every frame, can also be kept
+    as VolatileImages with drawHot(), which validates them and renders
+    them again when their contents are lost.
+
+    <p>getReport() lists the images that ended up unaccelerated.
+*/
+public class ImageManager {
+    private static final ImageManager shared = new ImageManager();
+
+    private volatile GraphicsConfiguration gc;
+    private final Map<String, Image> managed = new LinkedHashMap<>();
+    private final Map<Image, VolatileImage> hot = new IdentityHashMap<>();
+
+    /**
+        Gets the ImageManager shared by the game.
+    */
+    public static ImageManager getShared() {
+        return shared;
+    }
+
+    /**
+        Sets the GraphicsConfiguration of the screen the images are
+        drawn on. By default, the configuration of the default screen
+        is used.
+    */
+    public void setGraphicsConfiguration(GraphicsConfiguration gc) {
+        this.gc = gc;
+    }
+
+    /**
+        Gets the GraphicsConfiguration images are made for, or null
+        if there is no screen.
+    */
+    public GraphicsConfiguration getGraphicsConfiguration() {
+        GraphicsConfiguration config = gc;
+        if (config == null && !GraphicsEnvironment.isHeadless()) {
+            config = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+        }
+        return config;
+    }
+
+    /**
+        Creates an image compatible with the screen, or an ARGB
+        image if there is no screen.
+    */
+    public BufferedImage createCompatibleImage(int w, int h,
+        int transparency)
+    {
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        if (config == null) {
+            return new BufferedImage(w, h, (transparency == Transparency.OPAQUE) ?
+                BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        }
+        return config.createCompatibleImage(w, h, transparency);
+    }
+
+    /**
+        Copies an image into a compatible image with the
+        transparency mode its pixels need, and remembers it under the
+        specified name for getReport(). Images that aren't loaded
+        (for example, missing files) are returned as they are.
+    */
+    public Image manage(String name, Image image) {
+        int w = image.getWidth(null);
+        int h = image.getHeight(null);
+        if (w <= 0 || h <= 0)
+            return image;
+
+        int transparency = getTransparency(image, w, h);
+        Image result = image;
+        if (!isCompatible(image, transparency)) {
+            result = createCompatibleImage(w, h, transparency);
+            Graphics2D g = (Graphics2D)result.getGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+
+        synchronized (managed) {
+            managed.put(name, result);
+        }
+        return result;
+    }
+
+    /**
+        Draws a hot image through a VolatileImage copy of it,
+        rendering the copy again whenever it is lost.
+    */
+    public void drawHot(Graphics2D g, Image image, int x, int y) {
+        int w = image.getWidth(null);
+        int h = image.getHeight(null);
+        if (w <= 0 || h <= 0) {
+            g.drawImage(image, x, y, null);
+            return;
+        }
+
+        GraphicsConfiguration config = g.getDeviceConfiguration();
+        VolatileImage copy;
+        synchronized (hot) {
+            copy = hot.get(image);
+        }
+        do {
+            int valid = (copy == null) ?
+                VolatileImage.IMAGE_INCOMPATIBLE : copy.validate(config);
+            if (valid == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (copy != null)
+                    copy.flush();
+                copy = config.createCompatibleVolatileImage(w, h,
+                    getTransparency(image));
+                if (copy == null) {
+                    g.drawImage(image, x, y, null);
+                    return;
+                }
+                synchronized (hot) {
+                    hot.put(image, copy);
+                }
+                render(copy, image);
+            }
+            else if (valid == VolatileImage.IMAGE_RESTORED) {
+                render(copy, image);
+            }
+            g.drawImage(copy, x, y, null);
+        } while (copy.contentsLost());
+    }
+
+    /**
+        Gets a report of the images that are not accelerated on the
+        screen, or null if all of them are (or there is no screen).
+    */
+    public String getReport() {
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        if (config == null)
+            return null;
+
+        List<String> slow = new ArrayList<>();
+        synchronized (managed) {
+            for (Map.Entry<String, Image> entry : managed.entrySet()) {
+                if (!entry.getValue().getCapabilities(config).isAccelerated())
+                    slow.add(entry.getKey());
+            }
+        }
+        int slowHot = 0;
+        synchronized (hot) {
+            for (VolatileImage copy : hot.values()) {
+                if (!copy.getCapabilities().isAccelerated())
+                    slowHot++;
+            }
+        }
+
+        if (slow.isEmpty() && slowHot == 0)
+            return null;
+        return "Unaccelerated images: " + slow.size() + " managed " + slow +
+            ", " + slowHot + " hot";
+    }
+
+    private void render(VolatileImage copy, Image image) {
+        Graphics2D g = copy.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+    }
+
+    private boolean isCompatible(Image image, int transparency) {
+        if (!(image instanceof BufferedImage))
+            return false;
+        BufferedImage buffered = (BufferedImage)image;
+        if (buffered.getTransparency() != transparency)
+            return false;
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        return config == null || buffered.getColorModel().equals(
+            config.getColorModel(transparency));
+    }
+
+    private int getTransparency(Image image) {
+        if (image instanceof Transparency)
+            return ((Transparency)image).getTransparency();
+        return Transparency.TRANSLUCENT;
+    }
+
+    /**
+        Finds the smallest transparency mode that keeps every pixel
+        of the image.
+    */
+    private int getTransparency(Image image, int w, int h) {
+        BufferedImage pixels;
+        if (image instanceof BufferedImage) {
+            pixels = (BufferedImage)image;
+            if (pixels.getTransparency() == Transparency.OPAQUE)
+                return Transparency.OPAQUE;
+        }
+        else {
+            pixels = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = pixels.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+
+        int[] row = new int[w];
+        boolean transparent = false;
+        for (int y = 0; y < h; y++) {
+            pixels.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w; x++) {
+                int alpha = row[x] >>> 24;
+                if (alpha != 0 && alpha != 255)
+                    return Transparency.TRANSLUCENT;
+                if (alpha == 0)
+                    transparent = true;
+            }
+        }
+        return transparent ? Transparency.BITMASK : Transparency.OPAQUE;
+    }
+}
@@ -121,21 +121,46 @@ public class ScreenManager
         return null;
     }
     
+    /**
+     * Shows the frame drawn on the graphics from getGraphics().
+     * If contentsLost() is true afterwards, the frame was lost and
+     * should be drawn again.
+     */
     public void update() 
     {
         Window window = device.getFullScreenWindow();
         if (window != null) 
         {
             BufferStrategy strategy = window.getBufferStrategy();
-            if (!strategy.contentsLost()) 
-            {
-                strategy.show();
-            }
+            strategy.show();
         }
         
         Toolkit.getDefaultToolkit().sync();
     }
 
+    /**
+     * Checks if the drawing buffer was restored after being lost
+     * while a frame was drawn, so the frame must be drawn again
+     * before update().
+     */
+    public boolean contentsRestored()
+    {
+        Window window = device.getFullScreenWindow();
+        return window != null &&
+            window.getBufferStrategy().contentsRestored();
+    }
+
+    /**
+     * Checks if the last frame shown by update() was lost, so it
+     * must be drawn again.
+     */
+    public boolean contentsLost()
+    {
+        Window window = device.getFullScreenWindow();
+        return window != null &&
+            window.getBufferStrategy().contentsLost();
+    }
+
     public JFrame getFullScreenWindow() {
         return (JFrame)device.getFullScreenWindow();
     }
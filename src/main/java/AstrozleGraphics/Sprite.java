@@ -3,69 +3,224 @@ package AstrozleGraphics;
 import java.awt.Image;
 
 public class Sprite {
+    // whether a class of Sprite keeps the default update()
+    private static final ClassValue<Boolean> DEFAULT_UPDATE =
+        new ClassValue<Boolean>() {
+            protected Boolean computeValue(Class<?> type) {
+                try {
+                    return type.getMethod("update", long.class)
+                        .getDeclaringClass() == Sprite.class;
+                }
+                catch (NoSuchMethodException ex) {
+                    return false;
+                }
+            }
+        };
+
     protected Animation anim;
     
     private float x;
     private float y;
     
+    private float prevX;
+    private float prevY;
+    
     protected float dx;
     protected float dy;
     
+    // when in an EntityStore, the state above is kept there
+    private EntityStore store;
+    private int id = -1;
+    
     public Sprite(Animation anim) {
         this.anim = anim;
     }
     
     public void update(long elapsedTime) {
+        if (store != null) {
+            store.update(id, elapsedTime);
+            return;
+        }
         x += dx * elapsedTime;
         y += dy * elapsedTime;
         anim.update(elapsedTime);
     }
     
     public float getX() {
-        return x;
+        return (store == null) ? x : store.x[id];
     }
     
     public float getY() {
-        return y;
+        return (store == null) ? y : store.y[id];
+    }
+    
+    /**
+     * Remembers the current position as the start of the next tick,
+     * for getInterpolatedX() and getInterpolatedY().
+     */
+    public void savePosition() {
+        if (store != null) {
+            store.prevX[id] = store.x[id];
+            store.prevY[id] = store.y[id];
+            return;
+        }
+        prevX = x;
+        prevY = y;
+    }
+    
+    public float getInterpolatedX(float alpha) {
+        if (store != null)
+            return store.prevX[id] + (store.x[id] - store.prevX[id]) * alpha;
+        return prevX + (x - prevX) * alpha;
+    }
+    
+    public float getInterpolatedY(float alpha) {
+        if (store != null)
+            return store.prevY[id] + (store.y[id] - store.prevY[id]) * alpha;
+        return prevY + (y - prevY) * alpha;
     }
     
     public void setX(float x) {
-        this.x = x;
+        if (store != null)
+            store.x[id] = x;
+        else
+            this.x = x;
     }
-
+    
     public void setY(float y) {
-        this.y = y;
+        if (store != null)
+            store.y[id] = y;
+        else
+            this.y = y;
     }
-
+    
     public int getWidth() {
+        if (store != null)
+            return store.width[id];
         return anim.getImage().getWidth(null);
     }
     
     public int getHeight() {
+        if (store != null)
+            return store.height[id];
         return anim.getImage().getHeight(null);
     }
-
+    
     public float getVelocityX() {
-        return dx;
+        return (store == null) ? dx : store.dx[id];
     }
-   
+    
     public float getVelocityY() {
-        return dy;
+        return (store == null) ? dy : store.dy[id];
     }
-
+    
     public void setVelocityX(float dx) {
-        this.dx = dx;
+        if (store != null)
+            store.dx[id] = dx;
+        else
+            this.dx = dx;
     }
-
+    
     public void setVelocityY(float dy) {
-        this.dy = dy;
+        if (store != null)
+            store.dy[id] = dy;
+        else
+            this.dy = dy;
     }
-
+    
     public Image getImage() {
+        if (store != null)
+            return store.getImage(id);
         return anim.getImage();
     }
-
-    public Object clone() {
-        return new Sprite(anim);
+    
+    /**
+     * Switches to the start of the specified Animation.
+     */
+    protected void setAnimation(Animation anim) {
+        this.anim = anim;
+        if (store != null)
+            store.setAnimation(id, anim);
+        else
+            anim.start();
+    }
+    
+    /**
+     * Moves the current Animation by the elapsed time.
+     */
+    protected void updateAnimation(long elapsedTime) {
+        if (store != null)
+            store.updateAnimation(id, elapsedTime);
+        else
+            anim.update(elapsedTime);
+    }
+    
+    /**
+     * Gets the EntityStore this Sprite keeps its state in, or null.
+     */
+    public EntityStore getStore() {
+        return store;
+    }
+    
+    /**
+     * Gets the id of this Sprite in its EntityStore, or -1.
+     */
+    public int getId() {
+        return id;
+    }
+    
+    /**
+     * Gets the handle of this Sprite in its EntityStore, which
+     * doesn't change until it's removed, or -1.
+     */
+    public int getHandle() {
+        return (store == null) ? -1 : store.getHandle(id);
+    }
+    
+    /**
+     * Copies the state of this Sprite into entity id of the store,
+     * and keeps it there from now on. Called by EntityStore.add().
+     * Subclasses with more state in the store copy it too. Subclasses
+     * that write dx and dy directly (like the player) can't be kept
+     * in a store, and throw an UnsupportedOperationException.
+     */
+    protected void bind(EntityStore store, int id) {
+        store.x[id] = x;
+        store.y[id] = y;
+        store.prevX[id] = prevX;
+        store.prevY[id] = prevY;
+        store.dx[id] = dx;
+        store.dy[id] = dy;
+        store.anims[id] = anim;
+        store.animFrame[id] = anim.getFrameIndex();
+        store.animTime[id] = anim.getAnimTime();
+        store.setState(id, 0);
+        store.setStateTime(id, 0);
+        store.setFlags(id, DEFAULT_UPDATE.get(getClass()) ?
+            EntityStore.FLAG_DEFAULT_UPDATE : 0);
+        store.updateBounds(id);
+        this.store = store;
+        this.id = id;
+    }
+    
+    /**
+     * Copies the state of this Sprite back from its store. Called
+     * by EntityStore.remove().
+     */
+    protected void unbind() {
+        x = store.x[id];
+        y = store.y[id];
+        prevX = store.prevX[id];
+        prevY = store.prevY[id];
+        dx = store.dx[id];
+        dy = store.dy[id];
+        anim = store.anims[id];
+        anim.setCursor(store.animFrame[id], store.animTime[id]);
+        store = null;
+        id = -1;
+    }
+    
+    void setId(int id) {
+        this.id = id;
     }
 }
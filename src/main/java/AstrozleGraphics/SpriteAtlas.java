@@ -0,0 +1,201 @@
+package AstrozleGraphics;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import javax.imageio.ImageIO;
+
+/**
+    The SpriteAtlas class keeps a set of images (for example, every
+    creature frame with its mirrored and flipped variants) packed
+    into one PNG file plus an index file, in a cache directory. The
+    files are named after a hash of the source images, so changing
+    any source image makes a new atlas, and loading the atlas only
+    decodes one file instead of hundreds.
+
+    <p>Index file format: a header line "AZATLAS version", then one
+    line "key x y width height" per image.
+*/
+public class SpriteAtlas {
+    public static final int FORMAT_VERSION = 1;
+    public static final String DEFAULT_CACHE_DIR = "cache";
+
+    private static final int ATLAS_WIDTH = 1024;
+    private static final int PADDING = 1;
+
+    private final File imageFile;
+    private final File indexFile;
+
+    /**
+        Creates a SpriteAtlas in the specified cache directory, for
+        the images made from the specified source files.
+    */
+    public SpriteAtlas(File cacheDir, File[] sources) throws IOException {
+        String hash = hash(sources);
+        imageFile = new File(cacheDir, "atlas-" + hash + ".png");
+        indexFile = new File(cacheDir, "atlas-" + hash + ".idx");
+    }
+
+    /**
+        Gets the cache directory, set with -Dastrozle.cacheDir.
+    */
+    public static File getCacheDir() {
+        return new File(System.getProperty("astrozle.cacheDir",
+            DEFAULT_CACHE_DIR));
+    }
+
+    /**
+        Checks if the atlas for the current source images is in the
+        cache.
+    */
+    public boolean exists() {
+        return imageFile.exists() && indexFile.exists();
+    }
+
+    /**
+        Reads the atlas and cuts it into separate images, by key.
+    */
+    public Map<String, Image> read() throws IOException {
+        BufferedImage atlas = ImageIO.read(imageFile);
+        if (atlas == null)
+            throw new IOException("Unreadable atlas: " + imageFile);
+
+        Map<String, Image> images = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new FileInputStream(indexFile), StandardCharsets.UTF_8));
+        try {
+            String header = reader.readLine();
+            if (!("AZATLAS " + FORMAT_VERSION).equals(header))
+                throw new IOException("Bad atlas index: " + indexFile);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length != 5)
+                    throw new IOException("Bad atlas entry: " + line);
+                int x = Integer.parseInt(fields[1]);
+                int y = Integer.parseInt(fields[2]);
+                int w = Integer.parseInt(fields[3]);
+                int h = Integer.parseInt(fields[4]);
+
+                // copy the region, so each image has its own surface
+                BufferedImage image = new BufferedImage(w, h,
+                    BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = image.createGraphics();
+                g.drawImage(atlas, 0, 0, w, h, x, y, x + w, y + h, null);
+                g.dispose();
+                images.put(fields[0], image);
+            }
+        }
+        catch (NumberFormatException ex) {
+            throw new IOException("Bad atlas index: " + indexFile, ex);
+        }
+        finally {
+            reader.close();
+        }
+
+        return images;
+    }
+
+    /**
+        Packs the images into the atlas and writes it to the cache.
+        Keys must not contain spaces.
+    */
+    public void write(Map<String, Image> images) throws IOException {
+        // sort by height, then fill shelves from left to right
+        List<String> keys = new ArrayList<>(images.keySet());
+        Collections.sort(keys, (a, b) -> {
+            int byHeight = images.get(b).getHeight(null) -
+                images.get(a).getHeight(null);
+            return (byHeight != 0) ? byHeight : a.compareTo(b);
+        });
+
+        int[][] places = new int[keys.size()][];
+        int x = 0;
+        int y = 0;
+        int shelfHeight = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            Image image = images.get(keys.get(i));
+            int w = image.getWidth(null);
+            int h = image.getHeight(null);
+            if (x + w > ATLAS_WIDTH) {
+                x = 0;
+                y += shelfHeight + PADDING;
+                shelfHeight = 0;
+            }
+            places[i] = new int[] { x, y, w, h };
+            x += w + PADDING;
+            shelfHeight = Math.max(shelfHeight, h);
+        }
+
+        BufferedImage atlas = new BufferedImage(ATLAS_WIDTH,
+            Math.max(y + shelfHeight, 1), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = atlas.createGraphics();
+        for (int i = 0; i < keys.size(); i++)
+            g.drawImage(images.get(keys.get(i)), places[i][0], places[i][1], null);
+        g.dispose();
+
+        File dir = imageFile.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create cache directory: " + dir);
+
+        // write to temporary files first, so a crash never leaves
+        // a half written atlas behind
+        File tempImage = new File(imageFile.getPath() + ".tmp");
+        File tempIndex = new File(indexFile.getPath() + ".tmp");
+        if (!ImageIO.write(atlas, "png", tempImage))
+            throw new IOException("No PNG writer");
+
+        Writer writer = new OutputStreamWriter(
+            new FileOutputStream(tempIndex), StandardCharsets.UTF_8);
+        try {
+            writer.write("AZATLAS " + FORMAT_VERSION + "\n");
+            for (int i = 0; i < keys.size(); i++) {
+                writer.write(keys.get(i) + " " + places[i][0] + " " +
+                    places[i][1] + " " + places[i][2] + " " +
+                    places[i][3] + "\n");
+            }
+        }
+        finally {
+            writer.close();
+        }
+
+        if (!tempImage.renameTo(imageFile) || !tempIndex.renameTo(indexFile))
+            throw new IOException("Can't write atlas: " + imageFile);
+    }
+
+    /**
+        Hashes the format version and the names and contents of the
+        source files.
+    */
+    private static String hash(File[] sources) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+
+        digest.update(("AZATLAS " + FORMAT_VERSION).getBytes(
+            StandardCharsets.UTF_8));
+        for (File source : sources) {
+            digest.update(source.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            if (source.exists())
+                digest.update(Files.readAllBytes(source.toPath()));
+        }
+
+        StringBuilder hex = new StringBuilder();
+        byte[] bytes = digest.digest();
+        for (int i = 0; i < 8; i++)
+            hex.append(String.format("%02x", bytes[i] & 0xff));
+        return hex.toString();
+    }
+}
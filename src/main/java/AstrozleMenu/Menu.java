@@ -5,6 +5,7 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 
 import AstrozleTilegame.GameEngine;
+import AstrozleTilegame.MapLoader;
 
 import java.awt.Image;
 
@@ -12,11 +13,13 @@ import javax.swing.ImageIcon;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
 
 public class Menu extends JFrame {
     private int width;
     private int height;
     private GameEngine game;
+    private CompletableFuture<Void> assetsLoaded;
     
     /**
      * Launch the application.
@@ -34,6 +37,8 @@ public class Menu extends JFrame {
     public Menu(int width, int height) {
         this.width = width;
         this.height = height;
+        // decode the game images while the menu is shown
+        assetsLoaded = MapLoader.preloadAssets();
         initialize();
         game = new GameEngine();
     }
@@ -55,6 +60,7 @@ public class Menu extends JFrame {
             @Override
             public void mouseClicked(MouseEvent arg0) {
                 new Thread(() -> {
+                    assetsLoaded.join();
                     game.run();
                     System.exit(0);
                 }).start();
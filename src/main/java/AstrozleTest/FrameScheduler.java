@@ -0,0 +1,205 @@
+package AstrozleTest;
+
+/**
+    A FrameScheduler paces the game loop. After each frame is shown,
+    the loop calls sync(), which returns when the next frame should
+    start. The scheduler also measures the time between frames, so
+    the frame-time jitter of each strategy can be compared.
+
+    <p>Three strategies are provided: Uncapped (draw as fast as
+    possible), Capped (sleep until a fixed deadline), and Adaptive
+    (sleep most of the way, then spin to a nanosecond deadline).
+*/
+public abstract class FrameScheduler {
+    public static final int DEFAULT_FPS = 60;
+
+    private long lastFrameTime;
+    private long frameCount;
+    private double frameTimeSum;
+    private double frameTimeSquareSum;
+    private long minFrameTime = Long.MAX_VALUE;
+    private long maxFrameTime;
+
+    /**
+        Creates the scheduler with the specified name ("uncapped",
+        "capped" or "adaptive"). Unknown names get the Adaptive
+        scheduler.
+    */
+    public static FrameScheduler create(String name, int fps) {
+        if ("uncapped".equalsIgnoreCase(name))
+            return new Uncapped();
+        else if ("capped".equalsIgnoreCase(name))
+            return new Capped(fps);
+        else
+            return new Adaptive(fps);
+    }
+
+    /**
+        Gets the name of this scheduler.
+    */
+    public abstract String getName();
+
+    /**
+        Blocks until the next frame should start.
+    */
+    protected abstract void waitForNextFrame();
+
+    /**
+        Waits for the next frame and records the time since the
+        previous call.
+    */
+    public void sync() {
+        waitForNextFrame();
+
+        long now = System.nanoTime();
+        if (lastFrameTime != 0) {
+            long frameTime = now - lastFrameTime;
+            frameCount++;
+            frameTimeSum += frameTime;
+            frameTimeSquareSum += (double)frameTime * frameTime;
+            minFrameTime = Math.min(minFrameTime, frameTime);
+            maxFrameTime = Math.max(maxFrameTime, frameTime);
+        }
+        lastFrameTime = now;
+    }
+
+    /**
+        Gets the number of measured frames.
+    */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+        Gets the mean frame time in milliseconds.
+    */
+    public double getMeanFrameTime() {
+        if (frameCount == 0)
+            return 0;
+        return frameTimeSum / frameCount / 1000000.0;
+    }
+
+    /**
+        Gets the frame-time jitter (standard deviation) in
+        milliseconds.
+    */
+    public double getJitter() {
+        if (frameCount == 0)
+            return 0;
+        double mean = frameTimeSum / frameCount;
+        double variance = frameTimeSquareSum / frameCount - mean * mean;
+        return Math.sqrt(Math.max(variance, 0)) / 1000000.0;
+    }
+
+    /**
+        Gets a one line summary of the measured frame times.
+    */
+    public String getReport() {
+        if (frameCount == 0)
+            return getName() + ": no frames";
+        return String.format(
+            "%s: %d frames, mean %.2f ms (%.1f fps), jitter %.3f ms, "
+            + "min %.2f ms, max %.2f ms",
+            getName(), frameCount, getMeanFrameTime(),
+            1000.0 / getMeanFrameTime(), getJitter(),
+            minFrameTime / 1000000.0, maxFrameTime / 1000000.0);
+    }
+
+    /**
+        Doesn't wait at all. Keeps one core busy.
+    */
+    public static class Uncapped extends FrameScheduler {
+        public String getName() {
+            return "uncapped";
+        }
+
+        protected void waitForNextFrame() {
+            // do nothing
+        }
+    }
+
+    /**
+        Sleeps until a fixed deadline every 1/fps seconds. Cheap,
+        but the frame time jitters by the granularity of the OS
+        timer.
+    */
+    public static class Capped extends FrameScheduler {
+        protected final long frameNanos;
+        protected long deadline;
+
+        public Capped(int fps) {
+            frameNanos = 1000000000L / Math.max(fps, 1);
+        }
+
+        public String getName() {
+            return "capped@" + (1000000000L / frameNanos);
+        }
+
+        protected void waitForNextFrame() {
+            long now = System.nanoTime();
+            nextDeadline(now);
+            sleepNanos(deadline - now);
+        }
+
+        /**
+            Moves the deadline one frame ahead. If the loop fell
+            more than a frame behind, starts over from now instead
+            of trying to catch up.
+        */
+        protected void nextDeadline(long now) {
+            deadline += frameNanos;
+            if (deadline < now - frameNanos || deadline > now + frameNanos)
+                deadline = now + frameNanos;
+        }
+
+        protected void sleepNanos(long nanos) {
+            if (nanos <= 0)
+                return;
+            try {
+                Thread.sleep(nanos / 1000000L, (int)(nanos % 1000000L));
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+        Sleeps in 1 ms steps until the deadline is closer than the
+        worst oversleep seen so far, then yields until the
+        deadline passes. The oversleep estimate slowly decays, so
+        it adapts to the machine's timer.
+    */
+    public static class Adaptive extends Capped {
+        private static final long MIN_SPIN_NANOS = 200000L;
+
+        private long oversleepEstimate = 2000000L;
+
+        public Adaptive(int fps) {
+            super(fps);
+        }
+
+        public String getName() {
+            return "adaptive@" + (1000000000L / frameNanos);
+        }
+
+        protected void waitForNextFrame() {
+            long now = System.nanoTime();
+            nextDeadline(now);
+
+            while (deadline - now > oversleepEstimate) {
+                long sleepStart = now;
+                sleepNanos(1000000L);
+                now = System.nanoTime();
+                long oversleep = now - sleepStart - 1000000L;
+                oversleepEstimate = Math.max(oversleep,
+                    oversleepEstimate - oversleepEstimate / 64);
+                oversleepEstimate = Math.max(oversleepEstimate,
+                    MIN_SPIN_NANOS);
+            }
+
+            while (System.nanoTime() < deadline)
+                Thread.yield();
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package AstrozleTest;
 
 import java.awt.*;
+import java.util.concurrent.locks.LockSupport;
 import javax.swing.ImageIcon;
 
+import AstrozleGraphics.ImageManager;
 import AstrozleGraphics.ScreenManager;
 
 /**
@@ -24,7 +26,23 @@ public abstract class GameCore {
 
     };
 
-    private boolean isRunning;
+    /**
+        Default simulation rate of the fixed timestep loop. 125 Hz
+        keeps each tick a whole number of milliseconds (8 ms).
+    */
+    public static final int DEFAULT_TICK_RATE = 125;
+
+    /**
+        Maximum number of ticks run before drawing a frame. When the
+        loop falls further behind (a stall, a debugger pause), the
+        remaining backlog is dropped instead of spiralling.
+    */
+    public static final int MAX_CATCH_UP_STEPS = 5;
+
+    private volatile boolean isRunning;
+    private long tickMillis;
+    private boolean renderThreadEnabled;
+    private FrameScheduler scheduler;
     protected ScreenManager screen;
 
     /**
@@ -43,11 +61,27 @@ public abstract class GameCore {
             gameLoop();
         }
         finally {
+            if (Boolean.getBoolean("astrozle.reports"))
+                printReports();
             screen.restoreScreen();
             lazilyExit();
         }
     }
 
+    /**
+        Prints the performance reports gathered while running. Only
+        called on exit with -Dastrozle.reports=true. Subclasses that
+        gather their own reports should override this method and call
+        super.printReports().
+    */
+    protected void printReports() {
+        if (scheduler != null)
+            System.out.println(scheduler.getReport());
+        String imageReport = ImageManager.getShared().getReport();
+        if (imageReport != null)
+            System.out.println(imageReport);
+    }
+
     /**
         Exits the VM from a daemon thread. The daemon thread waits
         2 seconds then calls System.exit(0). Since the VM should
@@ -81,21 +115,104 @@ public abstract class GameCore {
         screen.setFullScreen(displayMode);
 
         Window window = screen.getFullScreenWindow();
+        ImageManager.getShared().setGraphicsConfiguration(
+            window.getGraphicsConfiguration());
         window.setFont(new Font("Dialog", Font.PLAIN, FONT_SIZE));
         window.setBackground(Color.BLACK);
         window.setForeground(Color.WHITE);
 
+        setTickRate(Integer.getInteger("astrozle.tickRate",
+            DEFAULT_TICK_RATE));
+        setFrameScheduler(FrameScheduler.create(
+            System.getProperty("astrozle.scheduler", "adaptive"),
+            Integer.getInteger("astrozle.fps", FrameScheduler.DEFAULT_FPS)));
+        setRenderThreadEnabled(Boolean.getBoolean("astrozle.renderThread"));
+
         isRunning = true;
     }
 
+    /**
+        Sets the simulation rate in ticks per second. A rate of 0
+        selects the variable timestep loop, where update() gets the
+        measured frame time. Rates are rounded to a whole number of
+        milliseconds per tick, so simulated time matches wall time.
+    */
+    public void setTickRate(int ticksPerSecond) {
+        if (ticksPerSecond <= 0)
+            tickMillis = 0;
+        else
+            tickMillis = Math.max(1, Math.round(1000f / ticksPerSecond));
+    }
+
+    /**
+        Sets the FrameScheduler that paces drawing.
+    */
+    public void setFrameScheduler(FrameScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+        Gets the FrameScheduler that paces drawing.
+    */
+    public FrameScheduler getFrameScheduler() {
+        return scheduler;
+    }
+
+    /**
+        Gets the length of a simulation tick in milliseconds, or 0 if
+        the variable timestep loop is used.
+    */
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+        Enables or disables drawing on a separate render thread,
+        set with -Dastrozle.renderThread=true. Only used by the fixed
+        timestep loop, and only if createRenderFrame() is
+        implemented.
+    */
+    public void setRenderThreadEnabled(boolean enabled) {
+        renderThreadEnabled = enabled;
+    }
+
+    /**
+        Checks if drawing on a separate render thread is enabled.
+    */
+    public boolean isRenderThreadEnabled() {
+        return renderThreadEnabled;
+    }
+
     public Image loadImage(String fileName) {
-        return new ImageIcon(fileName).getImage();
+        return ImageManager.getShared().manage(fileName,
+            new ImageIcon(fileName).getImage());
     }
 
     /**
         Runs through the game loop until stop() is called.
     */
     public void gameLoop() {
+        if (tickMillis > 0 && renderThreadEnabled) {
+            RenderFrame first = createRenderFrame();
+            if (first != null) {
+                threadedLoop(new TripleBuffer<TimedFrame>(
+                    new TimedFrame(first),
+                    new TimedFrame(createRenderFrame()),
+                    new TimedFrame(createRenderFrame())));
+                return;
+            }
+        }
+        if (tickMillis > 0)
+            fixedTimestepLoop();
+        else
+            variableTimestepLoop();
+    }
+
+    /**
+        Updates with the measured time of the previous frame, then
+        draws. Physics results depend on the frame rate.
+    */
+    private void variableTimestepLoop() {
         long startTime = System.currentTimeMillis();
         long currTime = startTime;
 
@@ -108,10 +225,163 @@ public abstract class GameCore {
             update(elapsedTime);
 
             // draw the screen
-            Graphics2D g = screen.getGraphics();
-            draw(g);
-            g.dispose();
+            drawFrame(1f);
+
+            scheduler.sync();
+        }
+    }
+
+    /**
+        Steps the simulation in fixed ticks of tickMillis, measured
+        with System.nanoTime(), and draws once per pass with the
+        fraction of a tick left in the accumulator as interpolation
+        alpha.
+    */
+    private void fixedTimestepLoop() {
+        long tickNanos = tickMillis * 1000000L;
+        long accumulator = 0;
+        long currTime = System.nanoTime();
+
+        while (isRunning) {
+            long now = System.nanoTime();
+            accumulator += now - currTime;
+            currTime = now;
+
+            // update
+            int steps = 0;
+            while (accumulator >= tickNanos && steps < MAX_CATCH_UP_STEPS) {
+                update(tickMillis);
+                accumulator -= tickNanos;
+                steps++;
+            }
+            if (accumulator >= tickNanos)
+                accumulator %= tickNanos;
+
+            // draw the screen
+            drawFrame((float)accumulator / tickNanos);
+
+            scheduler.sync();
+        }
+    }
+
+    /**
+        Runs the fixed timestep simulation on this thread, and draws
+        on a render thread. After each tick, the state to draw is
+        captured into the back buffer of a TripleBuffer, and the
+        render thread draws the newest captured frame, so a slow frame
+        never delays a tick and a slow tick never delays a frame.
+        Frames are drawn one tick behind the simulation, with alpha
+        measured from the time the frame was captured.
+    */
+    private void threadedLoop(final TripleBuffer<TimedFrame> frames) {
+        final long tickNanos = tickMillis * 1000000L;
+
+        Thread renderThread = new Thread("render") {
+            public void run() {
+                while (isRunning) {
+                    TimedFrame frame = frames.getFront();
+                    if (frame != null) {
+                        long age = System.nanoTime() - frame.time;
+                        drawFrame(frame.frame,
+                            Math.min((float)age / tickNanos, 1f));
+                    }
+                    scheduler.sync();
+                }
+            }
+        };
+        renderThread.start();
+
+        try {
+            long accumulator = 0;
+            long currTime = System.nanoTime();
+            while (isRunning) {
+                long now = System.nanoTime();
+                accumulator += now - currTime;
+                currTime = now;
+
+                // update, capturing a frame after each tick
+                int steps = 0;
+                while (accumulator >= tickNanos && steps < MAX_CATCH_UP_STEPS) {
+                    update(tickMillis);
+                    accumulator -= tickNanos;
+                    steps++;
+
+                    TimedFrame frame = frames.getBack();
+                    captureRenderFrame(frame.frame);
+                    frame.time = System.nanoTime();
+                    frames.publish();
+                }
+                if (accumulator >= tickNanos)
+                    accumulator %= tickNanos;
+
+                // wait for the next tick
+                LockSupport.parkNanos(tickNanos - accumulator);
+            }
+        }
+        finally {
+            isRunning = false;
+            try {
+                renderThread.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+        Draws a frame and shows it, drawing it again if the screen
+        buffer was lost or restored meanwhile.
+    */
+    private void drawFrame(float alpha) {
+        drawFrame(null, alpha);
+    }
+
+    /**
+        Draws a captured frame (or, if null, the current state of
+        the game) and shows it.
+    */
+    private void drawFrame(RenderFrame frame, float alpha) {
+        do {
+            do {
+                Graphics2D g = screen.getGraphics();
+                if (frame != null)
+                    frame.draw(g, alpha);
+                else
+                    draw(g, alpha);
+                g.dispose();
+            } while (screen.contentsRestored());
             screen.update();
+        } while (screen.contentsLost());
+    }
+
+    /**
+        Creates an empty RenderFrame, filled by captureRenderFrame()
+        and drawn on the render thread. Returns null by default,
+        meaning the game draws on the update thread only.
+    */
+    protected RenderFrame createRenderFrame() {
+        return null;
+    }
+
+    /**
+        Copies the state to draw into a RenderFrame made by
+        createRenderFrame(). Called on the update thread after each
+        tick.
+    */
+    protected void captureRenderFrame(RenderFrame frame) {
+        // do nothing
+    }
+
+    /**
+        A captured frame and the time it was captured.
+    */
+    private static class TimedFrame {
+        final RenderFrame frame;
+        long time;
+
+        TimedFrame(RenderFrame frame) {
+            this.frame = frame;
         }
     }
 
@@ -128,4 +398,13 @@ public abstract class GameCore {
         method.
     */
     public abstract void draw(Graphics2D g);
+
+    /**
+        Draws to the screen, blending sprite positions between the
+        previous and the current tick by alpha (0 to 1). Used by the
+        fixed timestep loop. By default, ignores alpha.
+    */
+    public void draw(Graphics2D g, float alpha) {
+        draw(g);
+    }
 }
@@ -0,0 +1,17 @@
+package AstrozleTest;
+
+import java.awt.Graphics2D;
+
+/**
+    A RenderFrame holds a copy of everything needed to draw one
+    frame of the game, captured by the update thread after a tick.
+    The render thread draws it without touching the game state.
+*/
+public interface RenderFrame {
+
+    /**
+        Draws this frame, blending sprite positions between the
+        start and the end of the captured tick by alpha (0 to 1).
+    */
+    public void draw(Graphics2D g, float alpha);
+}
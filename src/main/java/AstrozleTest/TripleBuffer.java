@@ -0,0 +1,61 @@
+package AstrozleTest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+    A TripleBuffer passes values from one writer thread to one
+    reader thread without locks. The writer fills the back buffer
+    and publishes it, the reader takes the newest published buffer.
+    The third buffer sits in the middle, so neither thread ever
+    waits for the other, and a buffer is never written while it's
+    being read.
+*/
+public class TripleBuffer<T> {
+    // set in middle when it holds a buffer the reader hasn't taken
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private final Object[] buffers;
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+    private boolean published;
+
+    /**
+        Creates a new TripleBuffer with the three specified
+        buffers.
+    */
+    public TripleBuffer(T first, T second, T third) {
+        buffers = new Object[] { first, second, third };
+    }
+
+    /**
+        Gets the buffer to fill. Called by the writer thread only.
+    */
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T)buffers[back];
+    }
+
+    /**
+        Publishes the filled back buffer and gets a new one.
+        Called by the writer thread only.
+    */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+        Gets the newest published buffer, or null if none was
+        published yet. The buffer stays with the reader until the
+        next call. Called by the reader thread only.
+    */
+    @SuppressWarnings("unchecked")
+    public T getFront() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+            published = true;
+        }
+        return published ? (T)buffers[front] : null;
+    }
+}
@@ -0,0 +1,155 @@
+package AstrozleTilegame;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+    The BinaryMapSource class reads chunks of a binary map file
+    (".azm") through a memory-mapped FileChannel. Binary maps are made
+    from text maps by MapConverter.
+
+    <p>File layout (big-endian):
+    <pre>
+    magic       4 bytes  "AZMP"
+    version     u16      FORMAT_VERSION
+    chunkWidth  u16      TileMap.CHUNK_WIDTH
+    width       i32      tiles across
+    height      i32      tiles down
+    chunkCount  i32
+    chunk table chunkCount x (i32 offset, i32 length)
+    chunks      for every chunk:
+                  tile runs, row-major over chunkWidth x height
+                  cells: (varint runLength, varint tileId) ...
+                  varint spawnCount
+                  spawns: (u8 glyph, varint localX, varint y) ...
+    </pre>
+    Tile id n is the n-th tile letter ('A' is 1), 0 is no tile.
+*/
+public class BinaryMapSource implements ChunkSource {
+    public static final int MAGIC = 0x415a4d50;  // "AZMP"
+    public static final int FORMAT_VERSION = 1;
+    public static final int HEADER_SIZE = 20;
+
+    private final ByteBuffer data;
+    private final int tileCount;
+    private final int width;
+    private final int height;
+    private final int chunkCount;
+
+    /**
+        Maps the specified file into memory and reads its header.
+        Tile ids above tileCount are loaded as empty tiles.
+    */
+    public BinaryMapSource(File file, int tileCount) throws IOException {
+        this.tileCount = tileCount;
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                channel.size());
+        }
+        finally {
+            // the mapping stays valid after the channel is closed
+            in.close();
+        }
+        data.order(ByteOrder.BIG_ENDIAN);
+
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC)
+            throw new IOException("Not a binary map: " + file);
+        int version = data.getShort(4) & 0xffff;
+        if (version != FORMAT_VERSION)
+            throw new IOException("Unsupported map version " + version +
+                ": " + file);
+        int chunkWidth = data.getShort(6) & 0xffff;
+        if (chunkWidth != TileMap.CHUNK_WIDTH)
+            throw new IOException("Unsupported chunk width " + chunkWidth +
+                ": " + file);
+
+        width = data.getInt(8);
+        height = data.getInt(12);
+        chunkCount = data.getInt(16);
+        if (width < 0 || height < 0 || chunkCount != (width +
+            TileMap.CHUNK_WIDTH - 1) / TileMap.CHUNK_WIDTH)
+        {
+            throw new IOException("Bad map size: " + file);
+        }
+        if (HEADER_SIZE + (long)chunkCount * 8 > data.limit())
+            throw new IOException("Truncated chunk table: " + file);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public MapChunk loadChunk(int index) throws IOException {
+        if (index < 0 || index >= chunkCount)
+            throw new IOException("No chunk " + index);
+
+        int offset = data.getInt(HEADER_SIZE + index * 8);
+        int length = data.getInt(HEADER_SIZE + index * 8 + 4);
+        if (offset < 0 || length < 0 ||
+            (long)offset + length > data.limit())
+        {
+            throw new IOException("Chunk " + index + " is outside the file");
+        }
+        ByteBuffer in = data.duplicate();
+        in.position(offset);
+        in.limit(offset + length);
+
+        MapChunk chunk = new MapChunk(index * TileMap.CHUNK_WIDTH, height);
+        try {
+            // tile runs
+            int cellCount = TileMap.CHUNK_WIDTH * height;
+            int cell = 0;
+            while (cell < cellCount) {
+                int run = readVarInt(in);
+                int id = readVarInt(in);
+                if (run <= 0 || cell + run > cellCount)
+                    throw new IOException("Bad tile run in chunk " + index);
+                if (id > tileCount)
+                    id = TileMap.EMPTY_TILE;
+                if (id != TileMap.EMPTY_TILE) {
+                    for (int i = cell; i < cell + run; i++)
+                        chunk.setTileId(i % TileMap.CHUNK_WIDTH,
+                            i / TileMap.CHUNK_WIDTH, (short)id);
+                }
+                cell += run;
+            }
+
+            // sprite spawns
+            int spawnCount = readVarInt(in);
+            for (int i = 0; i < spawnCount; i++) {
+                char glyph = (char)(in.get() & 0xff);
+                int localX = readVarInt(in);
+                int y = readVarInt(in);
+                chunk.addSpawn(glyph, chunk.getFirstColumn() + localX, y);
+            }
+        }
+        catch (RuntimeException ex) {
+            throw new IOException("Corrupt chunk " + index, ex);
+        }
+
+        return chunk;
+    }
+
+    /**
+        Reads an unsigned LEB128 integer.
+    */
+    static int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Varint too long");
+    }
+}
@@ -0,0 +1,27 @@
+package AstrozleTilegame;
+
+import java.io.IOException;
+
+/**
+    A ChunkSource parses the chunks of a map on request, so a
+    TileMap only needs the chunks around the camera in memory.
+*/
+public interface ChunkSource {
+
+    /**
+        Gets the width of the map (number of tiles across).
+    */
+    public int getWidth();
+
+    /**
+        Gets the height of the map (number of tiles down).
+    */
+    public int getHeight();
+
+    /**
+        Parses the chunk with the specified index. Chunk i holds
+        the columns i * TileMap.CHUNK_WIDTH up to (but excluding)
+        (i + 1) * TileMap.CHUNK_WIDTH.
+    */
+    public MapChunk loadChunk(int index) throws IOException;
+}
@@ -0,0 +1,447 @@
+package AstrozleTilegame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import AstrozleGraphics.EntityStore;
+import AstrozleGraphics.Sprite;
+import AstrozleTilegame.sprites.Creature;
+
+/**
+    The CreatureUpdater moves the Creatures of a TileMap: it applies
+    gravity, and moves them along X then Y, stopping at solid tiles.
+    Then it updates the animation of every Sprite.
+
+    <p>Sprites don't interact with each other here, and only read
+    the tiles, so the Sprites can be updated in parallel. With more
+    than one thread, they are split by map chunk (and big chunks into
+    batches of BATCH_SIZE) and updated on a ForkJoinPool. Each Sprite
+    is still computed by the same code, in the same order of steps,
+    so the results are the same bit for bit. Everything that changes
+    shared state (the player, the spatial grid, removing Sprites) is
+    left to the caller, after update() returns.
+
+    <p>Sprites in an EntityStore are updated from the arrays when
+    their flags allow it (see Creature): plain Sprites, and living
+    Creatures that move the default way. Their Sprites are only
+    called for what the flags don't cover, like turning around, so
+    the result is the same as calling them every time.
+*/
+public class CreatureUpdater {
+    /**
+        Maximum number of Sprites updated by one task.
+    */
+    public static final int BATCH_SIZE = 64;
+
+    private final ForkJoinPool pool;
+    private final TileCollision tileCollision = new TileCollision();
+    private final ArrayList<ArrayList<Sprite>> chunkSprites = new ArrayList<>();
+
+    /**
+        Creates a new CreatureUpdater that updates on the specified
+        number of threads. With one thread, Sprites are updated on the
+        calling thread.
+    */
+    public CreatureUpdater(int threads) {
+        pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+        Gets the number of threads Sprites are updated on.
+    */
+    public int getParallelism() {
+        return (pool == null) ? 1 : pool.getParallelism();
+    }
+
+    /**
+        Updates the specified Sprites (not the player) of the map.
+        Creatures must not be dead.
+    */
+    public void update(TileMap map, List<Sprite> sprites, long elapsedTime) {
+        if (pool == null || sprites.size() <= BATCH_SIZE) {
+            for (int i = 0; i < sprites.size(); i++)
+                update(map, sprites.get(i), elapsedTime, tileCollision);
+            return;
+        }
+
+        // split by chunk
+        for (ArrayList<Sprite> list : chunkSprites)
+            list.clear();
+        for (int i = 0; i < sprites.size(); i++) {
+            Sprite sprite = sprites.get(i);
+            int chunk = Math.max(TileMapDrawer.pixelsToTiles(sprite.getX()), 0) >>
+                TileMap.CHUNK_BITS;
+            while (chunkSprites.size() <= chunk)
+                chunkSprites.add(new ArrayList<Sprite>());
+            chunkSprites.get(chunk).add(sprite);
+        }
+
+        ArrayList<UpdateTask> tasks = new ArrayList<>();
+        for (ArrayList<Sprite> list : chunkSprites) {
+            if (!list.isEmpty())
+                tasks.add(new UpdateTask(map, list, 0, list.size(), elapsedTime));
+        }
+        map.setParallelUpdate(true);
+        try {
+            pool.invoke(new RecursiveAction() {
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        }
+        finally {
+            map.setParallelUpdate(false);
+        }
+    }
+
+    /**
+        Updates one Sprite.
+    */
+    private static void update(TileMap map, Sprite sprite, long elapsedTime,
+        TileCollision tileCollision)
+    {
+        EntityStore store = sprite.getStore();
+        if (store != null) {
+            int id = sprite.getId();
+            int flags = store.getFlags(id);
+            if ((flags & EntityStore.FLAG_DEFAULT_UPDATE) != 0) {
+                store.update(id, elapsedTime);
+                return;
+            }
+            if ((flags & Creature.FLAG_DEFAULT_MOVES) != 0 &&
+                store.getState(id) == Creature.STATE_NORMAL)
+            {
+                updateCreature(map, (Creature)sprite, store, id, flags,
+                    elapsedTime, tileCollision);
+                return;
+            }
+        }
+        if (sprite instanceof Creature) {
+            Creature creature = (Creature)sprite;
+            applyGravity(creature, elapsedTime);
+            moveHorizontal(map, creature, elapsedTime, tileCollision);
+            moveVertical(map, creature, elapsedTime, tileCollision);
+        }
+        // normal update
+        sprite.update(elapsedTime);
+    }
+
+    /**
+        Updates a living Creature that moves the default way from the
+        arrays of its store: the same steps as applyGravity(),
+        moveHorizontal(), moveVertical() and Creature.update().
+    */
+    private static void updateCreature(TileMap map, Creature creature,
+        EntityStore store, int id, int flags, long elapsedTime,
+        TileCollision tileCollision)
+    {
+        float x = store.getX(id);
+        float y = store.getY(id);
+        float dx = store.getVelocityX(id);
+        float dy = store.getVelocityY(id);
+        int width = store.getWidth(id);
+        int height = store.getHeight(id);
+
+        if ((flags & Creature.FLAG_FLYING) == 0)
+            dy = dy + GameEngine.GRAVITY * elapsedTime;
+
+        float newX = x + dx * elapsedTime;
+        if (!getTileCollision(map, x, y, width, height, newX, y, tileCollision))
+            x = newX;
+        else {
+            x = lineUpX(tileCollision, x, width);
+            dx = -dx;
+        }
+
+        float newY = y + dy * elapsedTime;
+        if (!getTileCollision(map, x, y, width, height, x, newY, tileCollision))
+            y = newY;
+        else {
+            y = lineUpY(tileCollision, y, height);
+            dy = 0;
+        }
+
+        store.setX(id, x);
+        store.setY(id, y);
+        store.setVelocityX(id, dx);
+        store.setVelocityY(id, dy);
+
+        // the Creature picks a new Animation itself
+        if ((dx < 0 && (flags & Creature.FLAG_LEFT) == 0) ||
+            (dx > 0 && (flags & Creature.FLAG_RIGHT) == 0))
+        {
+            creature.update(elapsedTime);
+            return;
+        }
+        store.updateAnimation(id, elapsedTime);
+        store.setStateTime(id, store.getStateTime(id) + elapsedTime);
+    }
+
+    /**
+        Updates the Sprites from index start up to (but excluding)
+        end of a list, splitting into halves down to BATCH_SIZE.
+    */
+    private static class UpdateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final TileMap map;
+        private final List<Sprite> sprites;
+        private final int start;
+        private final int end;
+        private final long elapsedTime;
+
+        UpdateTask(TileMap map, List<Sprite> sprites, int start, int end,
+            long elapsedTime)
+        {
+            this.map = map;
+            this.sprites = sprites;
+            this.start = start;
+            this.end = end;
+            this.elapsedTime = elapsedTime;
+        }
+
+        protected void compute() {
+            if (end - start > BATCH_SIZE) {
+                int middle = (start + end) >>> 1;
+                invokeAll(
+                    new UpdateTask(map, sprites, start, middle, elapsedTime),
+                    new UpdateTask(map, sprites, middle, end, elapsedTime));
+                return;
+            }
+            TileCollision tileCollision = new TileCollision();
+            for (int i = start; i < end; i++)
+                update(map, sprites.get(i), elapsedTime, tileCollision);
+        }
+    }
+
+    /**
+        Speeds up a Creature that isn't flying by gravity.
+    */
+    public static void applyGravity(Creature creature, long elapsedTime) {
+        if (!creature.isFlying())
+            creature.setVelocityY(creature.getVelocityY() +
+                GameEngine.GRAVITY * elapsedTime);
+    }
+
+    /**
+        Moves a Creature along X by its velocity. If it hits a tile,
+        it's lined up with the tile boundary and collideHorizontal()
+        is called.
+    */
+    public static void moveHorizontal(TileMap map, Creature creature,
+        long elapsedTime, TileCollision tileCollision)
+    {
+        float dx = creature.getVelocityX();
+        float oldX = creature.getX();
+        float newX = oldX + dx * elapsedTime;
+        if (!getTileCollision(map, creature, newX, creature.getY(), tileCollision))
+            creature.setX(newX);
+        else {
+            // line up with the tile boundary
+            if (tileCollision.getNormalX() != 0)
+                creature.setX(lineUpX(tileCollision, oldX, creature.getWidth()));
+            creature.collideHorizontal();
+        }
+    }
+
+    /**
+        Moves a Creature along Y by its velocity. If it hits a tile,
+        it's lined up with the tile boundary and collideVertical()
+        is called.
+    */
+    public static void moveVertical(TileMap map, Creature creature,
+        long elapsedTime, TileCollision tileCollision)
+    {
+        float dy = creature.getVelocityY();
+        float oldY = creature.getY();
+        float newY = oldY + dy * elapsedTime;
+        if (!getTileCollision(map, creature, creature.getX(), newY, tileCollision))
+            creature.setY(newY);
+        else {
+            // line up with the tile boundary
+            if (tileCollision.getNormalY() != 0)
+                creature.setY(lineUpY(tileCollision, oldY, creature.getHeight()));
+            
+            creature.collideVertical();
+        }
+    }
+
+    /**
+        Gets the X position that lines up bounds of the specified
+        width with the tile that was hit, or x if the tile wasn't hit
+        along X.
+    */
+    private static float lineUpX(TileCollision tileCollision, float x,
+        int width)
+    {
+        if (tileCollision.getNormalX() < 0)
+            return TileMapDrawer.tilesToPixels(tileCollision.getTileX()) - width;
+        else if (tileCollision.getNormalX() > 0)
+            return TileMapDrawer.tilesToPixels(tileCollision.getTileX() + 1);
+        return x;
+    }
+
+    /**
+        Gets the Y position that lines up bounds of the specified
+        height with the tile that was hit, or y if the tile wasn't hit
+        along Y.
+    */
+    private static float lineUpY(TileCollision tileCollision, float y,
+        int height)
+    {
+        if (tileCollision.getNormalY() < 0)
+            return TileMapDrawer.tilesToPixels(tileCollision.getTileY()) - height;
+        else if (tileCollision.getNormalY() > 0)
+            return TileMapDrawer.tilesToPixels(tileCollision.getTileY() + 1);
+        return y;
+    }
+
+    /**
+        Sweeps the bounds of a Sprite from its position to (newX, newY)
+        and finds the first solid tile they touch, with the time of
+        impact and the contact normal. Columns left and right of the
+        map are solid. Returns false if no tile is hit. The result is
+        owned by the caller, so this allocates nothing and is safe to
+        call for any distance moved, and from several threads.
+    */
+    public static boolean getTileCollision(TileMap map, Sprite sprite,
+        float newX, float newY, TileCollision result)
+    {
+        return getTileCollision(map, sprite.getX(), sprite.getY(),
+            sprite.getWidth(), sprite.getHeight(), newX, newY, result);
+    }
+
+    /**
+        Sweeps bounds of the specified size from (x, y) to (newX,
+        newY). See above.
+    */
+    public static boolean getTileCollision(TileMap map, float x, float y,
+        int width, int height, float newX, float newY, TileCollision result)
+    {
+        result.clear();
+        float dx = newX - x;
+        float dy = newY - y;
+        
+        // get the tiles the bounds pass over
+        int fromTileX = TileMapDrawer.pixelsToTiles((int)Math.floor(Math.min(x, newX)));
+        int fromTileY = TileMapDrawer.pixelsToTiles((int)Math.floor(Math.min(y, newY)));
+        int toTileX = TileMapDrawer.pixelsToTiles((int)Math.ceil(Math.max(x, newX) + width) - 1);
+        int toTileY = TileMapDrawer.pixelsToTiles((int)Math.ceil(Math.max(y, newY) + height) - 1);
+        
+        // most moves pass no solid tile at all, and most of the others
+        // fall straight onto the ground (or stand on it). Both are
+        // found from the first solid row of the columns; the other
+        // moves are swept tile by tile.
+        if (fromTileX >= 0 && toTileX < map.getWidth()) {
+            int firstRow = map.getFirstSolidRow(fromTileX, toTileX,
+                fromTileY, toTileY);
+            if (firstRow < 0)
+                return false;
+            if (dx == 0 && dy > 0) {
+                // the first solid row is hit first, unless the bounds
+                // already overlap it
+                float entry = getEntryTime(y, height, dy, firstRow);
+                float exit = getExitTime(y, height, dy, firstRow);
+                if (entry >= 0 && entry < exit && entry < 1 && exit > 0) {
+                    int firstRowX = fromTileX;
+                    while (!map.isSolid(firstRowX, firstRow))
+                        firstRowX++;
+                    result.set(Math.max(entry, 0), 0, -1, firstRowX, firstRow);
+                    return true;
+                }
+            }
+        }
+        
+        return sweep(map, x, y, width, height, dx, dy, fromTileX, fromTileY,
+            toTileX, toTileY, result);
+    }
+
+    /**
+        Sweeps the bounds over the tiles from (fromTileX, fromTileY)
+        to (toTileX, toTileY), the slow part of getTileCollision().
+    */
+    private static boolean sweep(TileMap map, float x, float y, int width,
+        int height, float dx, float dy, int fromTileX, int fromTileY,
+        int toTileX, int toTileY, TileCollision result)
+    {
+        // visit them in the direction of the move, so the search
+        // stops when no nearer tile is left
+        int stepX = (dx < 0) ? -1 : 1;
+        int stepY = (dy < 0) ? -1 : 1;
+        int firstX = (dx < 0) ? toTileX : fromTileX;
+        int firstY = (dy < 0) ? toTileY : fromTileY;
+        int endX = (dx < 0) ? fromTileX - 1 : toTileX + 1;
+        int endY = (dy < 0) ? fromTileY - 1 : toTileY + 1;
+        
+        for (int tileX = firstX; tileX != endX; tileX += stepX) {
+            float entryX = getEntryTime(x, width, dx, tileX);
+            if (result.isHit() && dx != 0 && entryX >= result.getTime())
+                break;
+            float exitX = getExitTime(x, width, dx, tileX);
+            boolean wall = (tileX < 0 || tileX >= map.getWidth());
+            
+            for (int tileY = firstY; tileY != endY; tileY += stepY) {
+                float entryY = getEntryTime(y, height, dy, tileY);
+                if (result.isHit() && dy != 0 && entryY >= result.getTime())
+                    break;
+                if (!wall && !map.isSolid(tileX, tileY))
+                    continue;
+                
+                // the bounds overlap the tile from the later entry
+                // to the earlier exit
+                float entry = Math.max(entryX, entryY);
+                float exit = Math.min(exitX, getExitTime(y, height, dy, tileY));
+                if (entry >= exit || entry >= 1 || exit <= 0)
+                    continue;
+                if (!result.isHit() || entry < result.getTime()) {
+                    int normalX = 0;
+                    int normalY = 0;
+                    if (entryX > entryY)
+                        normalX = (dx > 0) ? -1 : 1;
+                    else if (entryY != Float.NEGATIVE_INFINITY)
+                        normalY = (dy > 0) ? -1 : 1;
+                    result.set(Math.max(entry, 0), normalX, normalY,
+                        tileX, tileY);
+                }
+            }
+        }
+        
+        return result.isHit();
+    }
+    
+    /**
+        Gets the time (as a fraction of the move) a span of pixels,
+        starting at pos and moving by delta, starts to overlap the
+        specified tile.
+    */
+    private static float getEntryTime(float pos, int size, float delta, int tile) {
+        float start = TileMapDrawer.tilesToPixels(tile);
+        float end = TileMapDrawer.tilesToPixels(tile + 1);
+        if (delta > 0)
+            return (start - (pos + size)) / delta;
+        else if (delta < 0)
+            return (end - pos) / delta;
+        else
+            return (pos < end && pos + size > start) ?
+                Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+    }
+    
+    /**
+        Gets the time (as a fraction of the move) a span of pixels,
+        starting at pos and moving by delta, stops overlapping the
+        specified tile.
+    */
+    private static float getExitTime(float pos, int size, float delta, int tile) {
+        float start = TileMapDrawer.tilesToPixels(tile);
+        float end = TileMapDrawer.tilesToPixels(tile + 1);
+        if (delta > 0)
+            return (end - pos) / delta;
+        else if (delta < 0)
+            return (start - (pos + size)) / delta;
+        else
+            return (pos < end && pos + size > start) ?
+                Float.POSITIVE_INFINITY : Float.NEGATIVE_INFINITY;
+    }
+}
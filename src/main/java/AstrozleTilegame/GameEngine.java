@@ -3,13 +3,14 @@ package AstrozleTilegame;
 import java.awt.*;
 
 import java.awt.event.KeyEvent;
-import java.util.Iterator;
+import java.util.ArrayList;
 
 import AstrozleAudio.AudioManager;
 import AstrozleGraphics.Sprite;
 import AstrozleInput.GameAction;
 import AstrozleInput.InputManager;
 import AstrozleTest.GameCore;
+import AstrozleTest.RenderFrame;
 import AstrozleTilegame.sprites.Creature;
 import AstrozleTilegame.sprites.Astronot;
 import AstrozleTilegame.sprites.PowerUp;
@@ -21,7 +22,23 @@ public class GameEngine extends GameCore {
     public static final float GRAVITY = 0.002f;
     public static final float DEFAULT_ACCELERATION = 0.005f;
     
-    private Point pointCache = new Point();
+    /**
+     * Number of tile columns left and right of the screen where
+     * Sprites are simulated. Smaller than TileMap.CHUNK_WIDTH, so
+     * the active window never leaves the resident chunks.
+     */
+    public static final int ACTIVE_MARGIN = 2;
+    
+    private TileCollision tileCollision = new TileCollision();
+    private CreatureUpdater creatureUpdater;
+    private ArrayList<Sprite> collisionCandidates = new ArrayList<>();
+    private ArrayList<Sprite> activeSprites = new ArrayList<>();
+    private ArrayList<Sprite> windowSprites = new ArrayList<>();
+    private TileMap activeMap;
+    private int activeLeft;
+    private int activeRight;
+    private int screenLeft;
+    private int screenRight;
     private TileMap map;
     private MapLoader mapLoader;
     private InputManager inputManager;
@@ -34,6 +51,7 @@ public class GameEngine extends GameCore {
     private GameAction nextLevel;
     private int collectedCoins = 0;
     private int numLives = 5;
+    private int backgroundResets;
    
     public void init() {
         super.init();
@@ -41,25 +59,29 @@ public class GameEngine extends GameCore {
         // set up input manager
         initInput();
         
+        // update creatures on this many threads
+        creatureUpdater = new CreatureUpdater(
+            Integer.getInteger("astrozle.updateThreads", 1));
+        
         // start resource manager
         mapLoader = new MapLoader(screen.getFullScreenWindow()
             .getGraphicsConfiguration());
         
         // load background images and define a parallax factor for each image
         drawer = new TileMapDrawer();
-        drawer.setBackgrounds(new Image[] {
-            mapLoader.loadImage("background_1.png"),
-            mapLoader.loadImage("background_2.png"),
-            mapLoader.loadImage("background_3.png"),
-            mapLoader.loadImage("background_4.png"),
-            mapLoader.loadImage("background_5.png"),
-            mapLoader.loadImage("background_6.png"),
-            mapLoader.loadImage("background_7.png"),
-            mapLoader.loadImage("background_8.png"),
-            mapLoader.loadImage("background_9.png"),
-            mapLoader.loadImage("background_10.png"),
-            mapLoader.loadImage("background_11.png"),
-        });
+        drawer.setBackgrounds(mapLoader.loadImages(
+            "background_1.png",
+            "background_2.png",
+            "background_3.png",
+            "background_4.png",
+            "background_5.png",
+            "background_6.png",
+            "background_7.png",
+            "background_8.png",
+            "background_9.png",
+            "background_10.png",
+            "background_11.png"
+        ));
         
         drawer.setBackgroundParallaxFactors(new float[] {
             0.2f,
@@ -77,6 +99,8 @@ public class GameEngine extends GameCore {
         
         // load first map
         map = mapLoader.loadNextMap();
+        updateResidency();
+        map.savePositions();
         
         AudioManager.getInstance().play(AudioManager.SoundType.BG_MUSIC);
     }
@@ -88,6 +112,23 @@ public class GameEngine extends GameCore {
         super.stop();
     }
     
+    /**
+     * Prints the background, culling and audio reports after the
+     * frame scheduler and image reports.
+     */
+    protected void printReports() {
+        super.printReports();
+        String report = drawer.getBackgroundReport();
+        if (report != null)
+            System.out.println(report);
+        report = drawer.getCullingReport();
+        if (report != null)
+            System.out.println(report);
+        report = AudioManager.getInstance().getReport();
+        if (report != null)
+            System.out.println(report);
+    }
+    
     private void initInput() {
         moveLeft = new GameAction("moveLeft");
         moveRight = new GameAction("moveRight");
@@ -137,55 +178,130 @@ public class GameEngine extends GameCore {
     }
     
     public void draw(Graphics2D g) {
-        drawer.draw(g, map, screen.getWidth(), screen.getHeight());
+        draw(g, 1f);
+    }
+    
+    public void draw(Graphics2D g, float alpha) {
+        drawer.syncStartPositions(backgroundResets);
+        drawer.draw(g, map, screen.getWidth(), screen.getHeight(), alpha);
+        drawHud(g, collectedCoins, numLives, mapLoader.currentMap);
+    }
+    
+    /**
+     * Draws the coins, lives and map number.
+     */
+    static void drawHud(Graphics2D g, int coins, int lives, int home) {
         g.setColor(Color.WHITE);
         g.drawString("Press ESC for EXIT.", 10.0f, 20.0f);
         g.setColor(Color.GREEN);
-        g.drawString("Coins: " + collectedCoins, 300.0f, 20.0f);
+        g.drawString("Coins: " + coins, 300.0f, 20.0f);
         g.setColor(Color.YELLOW);
-        g.drawString("Lives: " + (numLives), 500.0f, 20.0f);
+        g.drawString("Lives: " + (lives), 500.0f, 20.0f);
         g.setColor(Color.WHITE);
-        g.drawString("Home: " + mapLoader.currentMap, 700.0f, 20.0f);
+        g.drawString("Home: " + home, 700.0f, 20.0f);
     }
     
     /**
-     * Gets the current map.
+     * Creates a WorldSnapshot for the render thread.
      */
-    public TileMap getMap() {
-        return map;
+    protected RenderFrame createRenderFrame() {
+        return new WorldSnapshot(drawer);
     }
     
     /**
-     * Gets the tile that a Sprites collides with.Only the
-        Sprite's X or Y should be changed, not both.Returns null
-        if no collision is detected.
+     * Copies the map and the HUD into a WorldSnapshot.
      */
-    public Point getTileCollision(Sprite sprite, float newX, float newY) {
-        float fromX = Math.min(sprite.getX(), newX);
-        float fromY = Math.min(sprite.getY(), newY);
-        float toX = Math.max(sprite.getX(), newX);
-        float toY = Math.max(sprite.getY(), newY);
-        
-        // get the tile locations
-        int fromTileX = TileMapDrawer.pixelsToTiles(fromX);
-        int fromTileY = TileMapDrawer.pixelsToTiles(fromY);
-        int toTileX = TileMapDrawer.pixelsToTiles(toX + sprite.getWidth() - 1);
-        int toTileY = TileMapDrawer.pixelsToTiles(toY + sprite.getHeight() - 1);
-        
-        // check each tile for a collision
-        for (int x = fromTileX; x <= toTileX; x++) {
-            for (int y = fromTileY; y <= toTileY; y++) {
-                if (x < 0 || x >= map.getWidth() ||
-                    map.getTile(x, y) != null) {
-                    // collision found, return the tile
-                    pointCache.setLocation(x, y);
-                    return pointCache;
-                }
+    protected void captureRenderFrame(RenderFrame frame) {
+        WorldSnapshot world = (WorldSnapshot)frame;
+        world.capture(map, screen.getWidth(), screen.getHeight(),
+            backgroundResets);
+        world.captureHud(collectedCoins, numLives, mapLoader.currentMap);
+    }
+    
+    /**
+     * Loads the map chunks around the visible part of the map.
+     */
+    private void updateResidency() {
+        int offsetX = TileMapDrawer.getOffsetX(map,
+            Math.round(map.getPlayer().getX()), screen.getWidth());
+        int firstTileX = TileMapDrawer.pixelsToTiles(-offsetX);
+        int lastTileX = firstTileX +
+            TileMapDrawer.pixelsToTiles(screen.getWidth()) + 1;
+        map.updateResidency(firstTileX, lastTileX);
+        screenLeft = -offsetX;
+        screenRight = -offsetX + screen.getWidth();
+        activeLeft = TileMapDrawer.tilesToPixels(firstTileX - ACTIVE_MARGIN);
+        activeRight = TileMapDrawer.tilesToPixels(lastTileX + 1 + ACTIVE_MARGIN);
+    }
+    
+    /**
+     * Checks if a Sprite is in the active window around the screen.
+     */
+    private boolean isActive(Sprite sprite) {
+        return sprite.getX() + sprite.getWidth() > activeLeft &&
+            sprite.getX() < activeRight;
+    }
+    
+    /**
+     * Finds the Sprites in the active window. Sprites outside of it
+     * aren't updated, and keep their position, velocity and
+     * animation. Creatures are woken up only once they are on
+     * screen, as before, so they don't start walking out of sight.
+     * Only looks at the Sprites near the window, so the cost doesn't
+     * grow with the size of the map.
+     */
+    private void updateActiveSprites() {
+        if (activeMap != map) {
+            activeMap = map;
+            activeSprites.clear();
+        }
+        
+        for (int i = 0; i < activeSprites.size(); i++) {
+            Sprite sprite = activeSprites.get(i);
+            if (!isActive(sprite)) {
+                // keep it still while drawn
+                sprite.savePosition();
             }
         }
         
-        // no collision found
-        return null;
+        windowSprites.clear();
+        map.getSpritesNear(activeLeft, 0, activeRight - activeLeft,
+            TileMapDrawer.tilesToPixels(map.getHeight()), windowSprites);
+        activeSprites.clear();
+        for (int i = 0; i < windowSprites.size(); i++) {
+            Sprite sprite = windowSprites.get(i);
+            if (isActive(sprite)) {
+                activeSprites.add(sprite);
+                // wake up the creature when it's on screen
+                int x = Math.round(sprite.getX());
+                if (sprite instanceof Creature &&
+                    x >= screenLeft && x < screenRight)
+                {
+                    ((Creature)sprite).wakeUp();
+                }
+            }
+        }
+        windowSprites.clear();
+    }
+    
+    /**
+     * Gets the current map.
+     */
+    public TileMap getMap() {
+        return map;
+    }
+    
+    /**
+     * Sweeps the bounds of a Sprite from its position to (newX, newY)
+     * and finds the first solid tile they touch, with the time of
+     * impact and the contact normal. Returns false if no tile is hit.
+     * See CreatureUpdater.getTileCollision().
+     */
+    public boolean getTileCollision(Sprite sprite, float newX, float newY,
+        TileCollision result)
+    {
+        return CreatureUpdater.getTileCollision(map, sprite, newX, newY,
+            result);
     }
     
     /**
@@ -222,17 +338,21 @@ public class GameEngine extends GameCore {
      * or null if no Sprite collides with the specified Sprite.
      */
     public Sprite getSpriteCollision(Sprite sprite) {
-        // run through the list of Sprites
-        Iterator i = map.getSprites();
-        while (i.hasNext()) {
-            Sprite otherSprite = (Sprite)i.next();
+        // run through the Sprites near this one
+        collisionCandidates.clear();
+        map.getSpritesNear(sprite.getX(), sprite.getY(),
+            sprite.getWidth(), sprite.getHeight(), collisionCandidates);
+        for (int i = 0; i < collisionCandidates.size(); i++) {
+            Sprite otherSprite = collisionCandidates.get(i);
             if (isCollision(sprite, otherSprite)) {
                 // collision found, return the Sprite
+                collisionCandidates.clear();
                 return otherSprite;
             }
         }
         
         // no collision found
+        collisionCandidates.clear();
         return null;
     }
     
@@ -246,7 +366,7 @@ public class GameEngine extends GameCore {
         // player fallen
         if (player.getY() > screen.getHeight() + player.getHeight() * 2) {
             player.setState(Creature.STATE_DEAD);
-            drawer.resetStartPositions();
+            backgroundResets++;
             numLives--;
             AudioManager.getInstance().play(AudioManager.SoundType.PLAYER_DEATH);
         }
@@ -254,9 +374,21 @@ public class GameEngine extends GameCore {
         // player is dead! start map over
         if (player.getState() == Creature.STATE_DEAD) {
             map = mapLoader.reloadMap();
+            updateResidency();
+            map.savePositions();
             return;
         }
         
+        // load the chunks around the camera, spawning their sprites
+        updateResidency();
+        updateActiveSprites();
+        
+        // remember where everything was, for interpolated drawing
+        // (sleeping sprites don't move)
+        player.savePosition();
+        for (int i = 0; i < activeSprites.size(); i++)
+            activeSprites.get(i).savePosition();
+        
         // get keyboard/mouse input
         checkInput(elapsedTime);
         
@@ -264,67 +396,52 @@ public class GameEngine extends GameCore {
         updateCreature(player, elapsedTime);
         player.update(elapsedTime);
         
-        // update other sprites
-        Iterator i = map.getSprites();
-        while (i.hasNext()) {
-            Sprite sprite = (Sprite)i.next();
-            if (sprite instanceof Creature) {
-                Creature creature = (Creature)sprite;
-                if (creature.getState() == Creature.STATE_DEAD)
-                    i.remove();
-                else
-                    updateCreature(creature, elapsedTime);
+        // remove the dead creatures
+        int live = 0;
+        for (int i = 0; i < activeSprites.size(); i++) {
+            Sprite sprite = activeSprites.get(i);
+            if (sprite instanceof Creature &&
+                ((Creature)sprite).getState() == Creature.STATE_DEAD)
+            {
+                map.despawn(sprite);
+            }
+            else {
+                activeSprites.set(live++, sprite);
             }
-            // normal update
-            sprite.update(elapsedTime);
         }
+        activeSprites.subList(live, activeSprites.size()).clear();
+        
+        // update the other active sprites, in parallel if enabled,
+        // then move them between grid cells in order
+        creatureUpdater.update(map, activeSprites, elapsedTime);
+        for (int i = 0; i < activeSprites.size(); i++)
+            map.updateSprite(activeSprites.get(i));
+        
+        // the tick is over, remove what was despawned during it
+        map.applyDespawns();
     }
     
     /**
      * Updates the creature, applying gravity for creatures that
-     * aren't flying, and checks collisions.
+     * aren't flying, and checks collisions. The player also checks
+     * for collisions with other Sprites after each axis.
      */
     private void updateCreature(Creature creature,
         long elapsedTime) {
         
         // apply gravity
-        if (!creature.isFlying())
-            creature.setVelocityY(creature.getVelocityY() + GRAVITY * elapsedTime);
+        CreatureUpdater.applyGravity(creature, elapsedTime);
         
         // change x
-        float dx = creature.getVelocityX();
-        float oldX = creature.getX();
-        float newX = oldX + dx * elapsedTime;
-        Point tile = getTileCollision(creature, newX, creature.getY());
-        if (tile == null) 
-            creature.setX(newX);
-        else {
-            // line up with the tile boundary
-            if (dx > 0)
-                creature.setX(TileMapDrawer.tilesToPixels(tile.x) - creature.getWidth());
-            else if (dx < 0)
-                creature.setX(TileMapDrawer.tilesToPixels(tile.x + 1));
-            creature.collideHorizontal();
-        }
+        CreatureUpdater.moveHorizontal(map, creature, elapsedTime,
+            tileCollision);
         if (creature instanceof Astronot)
             checkPlayerCollision((Astronot)creature, false);
         
         // change y
-        float dy = creature.getVelocityY();
         float oldY = creature.getY();
-        float newY = oldY + dy * elapsedTime;
-        tile = getTileCollision(creature, creature.getX(), newY);
-        if (tile == null)
-            creature.setY(newY);
-        else {
-            // line up with the tile boundary
-            if (dy > 0)
-                creature.setY(TileMapDrawer.tilesToPixels(tile.y) - creature.getHeight());
-            else if (dy < 0)
-                creature.setY(TileMapDrawer.tilesToPixels(tile.y + 1));
-            
-            creature.collideVertical();
-        }
+        CreatureUpdater.moveVertical(map, creature, elapsedTime,
+            tileCollision);
         if (creature instanceof Astronot) {
             boolean canKill = (oldY < creature.getY());
             checkPlayerCollision((Astronot)creature, canKill);
@@ -360,7 +477,7 @@ public class GameEngine extends GameCore {
             else {
                 // player dies!
                 player.setState(Creature.STATE_DYING);
-                drawer.resetStartPositions();
+                backgroundResets++;
                 numLives--;
                 if (numLives == 0) {
                     AudioManager.getInstance().stopAll();
@@ -384,8 +501,8 @@ public class GameEngine extends GameCore {
      * @param powerUp
      */
     public void acquirePowerUp(PowerUp powerUp) {
-        // remove it from the map
-        map.removeSprite(powerUp);
+        // remove it from the map at the end of the tick
+        map.despawn(powerUp);
         
         if (powerUp instanceof PowerUp.Coin) {
             AudioManager.getInstance().play(AudioManager.SoundType.COIN_PICKUP);
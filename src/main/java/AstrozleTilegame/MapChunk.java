@@ -0,0 +1,162 @@
+package AstrozleTilegame;
+
+import java.util.Arrays;
+
+/**
+    A MapChunk holds the tiles of TileMap.CHUNK_WIDTH columns of a
+    map, stored row-major as tile ids with a column-major bitset of
+    solid tiles (so a range of rows in a column is checked with one
+    mask), plus the Sprites that spawn in those columns. Sprite
+    spawns are kept as map glyphs ('o', '1', etc.) and absolute tile
+    positions.
+
+    <p>Chunks loaded from a ChunkSource may be shared by several
+    TileMaps, so a TileMap changes a copy() instead.
+*/
+public class MapChunk {
+    private final int firstColumn;
+    private final int height;
+    private final short[] tiles;
+    private final long[] solid;
+    private final int columnWords;
+
+    private char[] spawnGlyphs = new char[0];
+    private int[] spawnX = new int[0];
+    private int[] spawnY = new int[0];
+    private int spawnCount;
+
+    /**
+        Creates a new, empty MapChunk starting at the specified
+        column of the map.
+    */
+    public MapChunk(int firstColumn, int height) {
+        this.firstColumn = firstColumn;
+        this.height = height;
+        tiles = new short[TileMap.CHUNK_WIDTH * height];
+        columnWords = (height + 63) >> 6;
+        solid = new long[TileMap.CHUNK_WIDTH * columnWords];
+    }
+
+    /**
+        Creates a copy of this MapChunk that can be changed
+        without changing this one.
+    */
+    public MapChunk copy() {
+        MapChunk chunk = new MapChunk(firstColumn, height);
+        System.arraycopy(tiles, 0, chunk.tiles, 0, tiles.length);
+        System.arraycopy(solid, 0, chunk.solid, 0, solid.length);
+        chunk.spawnGlyphs = spawnGlyphs.clone();
+        chunk.spawnX = spawnX.clone();
+        chunk.spawnY = spawnY.clone();
+        chunk.spawnCount = spawnCount;
+        return chunk;
+    }
+
+    /**
+        Gets the map column of the first column in this chunk.
+    */
+    public int getFirstColumn() {
+        return firstColumn;
+    }
+
+    /**
+        Gets the height of this chunk (number of tiles down).
+    */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+        Gets the id of the tile at the specified column (relative
+        to this chunk) and row.
+    */
+    public short getTileId(int localX, int y) {
+        return tiles[y * TileMap.CHUNK_WIDTH + localX];
+    }
+
+    /**
+        Checks if the tile at the specified column (relative to
+        this chunk) and row is solid.
+    */
+    public boolean isSolid(int localX, int y) {
+        return (solid[localX * columnWords + (y >> 6)] & (1L << y)) != 0;
+    }
+
+    /**
+        Gets the solid rows of the specified column (relative to this
+        chunk) as bits, bit y set if row y is solid. Only for chunks
+        up to 64 rows high.
+    */
+    public long getSolidRows(int localX) {
+        return solid[localX * columnWords];
+    }
+
+    /**
+        Gets the first solid row from row fromY to row toY (inclusive)
+        of the specified column (relative to this chunk), or -1 if
+        none is solid. The rows must be in the chunk.
+    */
+    public int getFirstSolidRow(int localX, int fromY, int toY) {
+        int base = localX * columnWords;
+        int fromWord = fromY >> 6;
+        int toWord = toY >> 6;
+        for (int word = fromWord; word <= toWord; word++) {
+            long bits = solid[base + word];
+            if (word == fromWord)
+                bits &= -1L << fromY;
+            if (word == toWord)
+                bits &= -1L >>> (63 - (toY & 63));
+            if (bits != 0)
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        return -1;
+    }
+
+    /**
+        Sets the id of the tile at the specified column (relative
+        to this chunk) and row. Every tile other than
+        TileMap.EMPTY_TILE is solid.
+    */
+    public void setTileId(int localX, int y, short id) {
+        int i = y * TileMap.CHUNK_WIDTH + localX;
+        tiles[i] = id;
+        int word = localX * columnWords + (y >> 6);
+        if (id == TileMap.EMPTY_TILE)
+            solid[word] &= ~(1L << y);
+        else
+            solid[word] |= 1L << y;
+    }
+
+    /**
+        Adds a Sprite spawn at the specified map position (in
+        tiles).
+    */
+    public void addSpawn(char glyph, int tileX, int tileY) {
+        if (spawnCount == spawnGlyphs.length) {
+            int capacity = Math.max(8, spawnCount * 2);
+            spawnGlyphs = Arrays.copyOf(spawnGlyphs, capacity);
+            spawnX = Arrays.copyOf(spawnX, capacity);
+            spawnY = Arrays.copyOf(spawnY, capacity);
+        }
+        spawnGlyphs[spawnCount] = glyph;
+        spawnX[spawnCount] = tileX;
+        spawnY[spawnCount] = tileY;
+        spawnCount++;
+    }
+
+    public int getSpawnCount() {
+        return spawnCount;
+    }
+
+    public char getSpawnGlyph(int i) {
+        return spawnGlyphs[i];
+    }
+
+    public int getSpawnX(int i) {
+        return spawnX[i];
+    }
+
+    public int getSpawnY(int i) {
+        return spawnY[i];
+    }
+}
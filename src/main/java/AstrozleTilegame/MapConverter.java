@@ -0,0 +1,149 @@
+package AstrozleTilegame;
+
+import java.io.*;
+
+/**
+    The MapConverter class turns text maps into binary maps (see
+    BinaryMapSource). Text maps stay the authoring format; MapLoader
+    uses a binary map instead when one exists that is not older than
+    its text map.
+
+    <p>Usage: MapConverter [file.txt ...]. Without arguments, every
+    map in the maps/ directory is converted. Each map is written next
+    to its text map, with the extension ".azm".
+*/
+public class MapConverter {
+    public static final String BINARY_EXTENSION = ".azm";
+
+    /**
+        Every upper case letter is stored as a tile. The loader
+        turns letters without a tile image into empty tiles, as the
+        text loader does.
+    */
+    private static final int MAX_TILES = 26;
+
+    public static void main(String[] args) throws IOException {
+        File[] files;
+        if (args.length > 0) {
+            files = new File[args.length];
+            for (int i = 0; i < args.length; i++)
+                files[i] = new File(args[i]);
+        }
+        else {
+            files = new File("maps").listFiles(new FilenameFilter() {
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(".txt");
+                }
+            });
+            if (files == null)
+                files = new File[0];
+        }
+
+        for (File file : files) {
+            File out = getBinaryFile(file);
+            convert(new TextMapSource(file, MAX_TILES), out);
+            System.out.println(file + " -> " + out + " (" + out.length() +
+                " bytes, was " + file.length() + ")");
+        }
+    }
+
+    /**
+        Gets the binary map file for the specified text map file.
+    */
+    public static File getBinaryFile(File textFile) {
+        String name = textFile.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0)
+            name = name.substring(0, dot);
+        return new File(textFile.getParentFile(), name + BINARY_EXTENSION);
+    }
+
+    /**
+        Writes every chunk of the specified map to a binary map
+        file.
+    */
+    public static void convert(ChunkSource source, File out)
+        throws IOException
+    {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int chunkCount = (width + TileMap.CHUNK_WIDTH - 1) / TileMap.CHUNK_WIDTH;
+
+        // encode the chunks first, so the table can hold offsets
+        byte[][] chunks = new byte[chunkCount][];
+        for (int i = 0; i < chunkCount; i++)
+            chunks[i] = encodeChunk(source.loadChunk(i), height);
+
+        // write to a temporary file first, so an interrupted
+        // conversion never leaves a newer, half written map behind
+        File temp = new File(out.getPath() + ".tmp");
+        DataOutputStream dataOut = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            dataOut.writeInt(BinaryMapSource.MAGIC);
+            dataOut.writeShort(BinaryMapSource.FORMAT_VERSION);
+            dataOut.writeShort(TileMap.CHUNK_WIDTH);
+            dataOut.writeInt(width);
+            dataOut.writeInt(height);
+            dataOut.writeInt(chunkCount);
+
+            int offset = BinaryMapSource.HEADER_SIZE + chunkCount * 8;
+            for (byte[] chunk : chunks) {
+                dataOut.writeInt(offset);
+                dataOut.writeInt(chunk.length);
+                offset += chunk.length;
+            }
+            for (byte[] chunk : chunks)
+                dataOut.write(chunk);
+        }
+        finally {
+            dataOut.close();
+        }
+
+        if (!temp.renameTo(out))
+            throw new IOException("Can't write binary map: " + out);
+    }
+
+    private static byte[] encodeChunk(MapChunk chunk, int height) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // run-length encode the tiles
+        int cellCount = TileMap.CHUNK_WIDTH * height;
+        int cell = 0;
+        while (cell < cellCount) {
+            short id = chunk.getTileId(cell % TileMap.CHUNK_WIDTH,
+                cell / TileMap.CHUNK_WIDTH);
+            int run = 1;
+            while (cell + run < cellCount &&
+                chunk.getTileId((cell + run) % TileMap.CHUNK_WIDTH,
+                    (cell + run) / TileMap.CHUNK_WIDTH) == id)
+            {
+                run++;
+            }
+            writeVarInt(out, run);
+            writeVarInt(out, id);
+            cell += run;
+        }
+
+        // sprite spawns
+        writeVarInt(out, chunk.getSpawnCount());
+        for (int i = 0; i < chunk.getSpawnCount(); i++) {
+            out.write(chunk.getSpawnGlyph(i) & 0xff);
+            writeVarInt(out, chunk.getSpawnX(i) - chunk.getFirstColumn());
+            writeVarInt(out, chunk.getSpawnY(i));
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+        Writes an unsigned LEB128 integer.
+    */
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
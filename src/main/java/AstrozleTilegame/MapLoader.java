@@ -1,6 +1,8 @@
 package AstrozleTilegame;
 
 import AstrozleGraphics.Animation;
+import AstrozleGraphics.AssetPipeline;
+import AstrozleGraphics.SpriteAtlas;
 import AstrozleGraphics.Sprite;
 import AstrozleTilegame.sprites.Pesawat;
 import AstrozleTilegame.sprites.Alien;
@@ -9,37 +11,39 @@ import AstrozleTilegame.sprites.PowerUp;
 import AstrozleTilegame.sprites.Stone;
 
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.io.*;
 import java.util.ArrayList;
-import javax.swing.ImageIcon;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
     The ResourceManager class loads and manages tile Images and
-    "host" Sprites used in the game. Game Sprites are cloned from
-    "host" Sprites.
+    the factories of the Sprites used in the game. Game Sprites are
+    created by the factory registered for their map glyph.
 */
-public class MapLoader {
+public class MapLoader implements TileMap.Spawner {
     private ArrayList<Image> tiles;
+    private Image[] tileImages;
+    private MapTemplate currentTemplate;
     public int currentMap;
-    private GraphicsConfiguration gc;
+    private AssetPipeline assets;
 
-    // host sprites used for cloning
-    private Sprite playerSprite;
-    private Sprite starSprite;
-    private Sprite coinSprite;
-    private Sprite goalSprite;
-    private Sprite grubSprite;
-    private Sprite flySprite;
-    private Sprite trapSprite;
+    // factories of the player and of every map glyph
+    private SpawnRegistry.SpriteFactory<Astronot> playerFactory;
+    private SpawnRegistry spawnRegistry = new SpawnRegistry();
 
     /**
         Creates a new ResourceManager with the specified
         GraphicsConfiguration.
     */
     public MapLoader(GraphicsConfiguration gc) {
-        this.gc = gc;
+        assets = AssetPipeline.getShared();
+        assets.setGraphicsConfiguration(gc);
         loadTileImages();
         loadCreatureSprites();
         loadPowerUpSprites();
@@ -49,38 +53,19 @@ public class MapLoader {
         Gets an image from the images/ directory.
     */
     public Image loadImage(String name) {
-        String filename = "images/" + name;
-        return new ImageIcon(filename).getImage();
+        return assets.image(name).join();
     }
 
-    public Image getMirrorImage(Image image) {
-        return getScaledImage(image, -1, 1);
-    }
-
-    public Image getFlippedImage(Image image) {
-        return getScaledImage(image, 1, -1);
-    }
-
-    private Image getScaledImage(Image image, float x, float y) {
-        // set up the transform
-        AffineTransform transform = new AffineTransform();
-        transform.scale(x, y);
-        transform.translate(
-            (x-1) * image.getWidth(null) / 2,
-            (y-1) * image.getHeight(null) / 2);
-
-        // create a transparent (not translucent) image
-        Image newImage = gc.createCompatibleImage(
-            image.getWidth(null),
-            image.getHeight(null),
-            Transparency.BITMASK);
-
-        // draw the transformed image
-        Graphics2D g = (Graphics2D)newImage.getGraphics();
-        g.drawImage(image, transform, null);
-        g.dispose();
-
-        return newImage;
+    /**
+        Gets images from the images/ directory, decoding them in
+        parallel.
+    */
+    public Image[] loadImages(String... names) {
+        assets.preload(names).join();
+        Image[] result = new Image[names.length];
+        for (int i = 0; i < names.length; i++)
+            result[i] = assets.image(names[i]).join();
+        return result;
     }
 
     public TileMap loadNextMap() {
@@ -104,7 +89,14 @@ public class MapLoader {
         return map;
     }
 
+    /**
+        Restarts the current map. The map is created from the
+        parsed template of the level, so nothing is read from disk.
+    */
     public TileMap reloadMap() {
+        if (currentTemplate != null)
+            return createMap(currentTemplate);
+
         try {
             return loadMap("maps/map" + currentMap + ".txt");
         }
@@ -115,72 +107,55 @@ public class MapLoader {
     }
 
     private TileMap loadMap(String filename) throws IOException {
-        ArrayList<String> lines = new ArrayList<>();
-        int width = 0;
-        int height = 0;
-
-        // read every line in the text file into the list
-        BufferedReader reader = new BufferedReader(
-            new FileReader(filename));
-        while (true) {
-            String line = reader.readLine();
-            // no more lines to read
-            if (line == null) {
-                reader.close();
-                break;
-            }
+        // only the map header or row index is read here, chunks
+        // are parsed when the map needs them
+        currentTemplate = new MapTemplate(openMap(new File(filename)));
+        return createMap(currentTemplate);
+    }
 
-            // add every line except for comments
-            if (!line.startsWith("#")) {
-                lines.add(line);
-                width = Math.max(width, line.length());
-            }
-        }
-        
-        // parse the lines to create a TileEngine
-        height = lines.size();
-        TileMap newMap = new TileMap(width, height);
-        for (int y=0; y<height; y++) {
-            String line = (String)lines.get(y);
-            for (int x = 0; x < line.length(); x++) {
-                char ch = line.charAt(x);
-
-                // check if the char represents tile A, B, C etc.
-                int tile = ch - 'A';
-                if (tile >= 0 && tile < tiles.size())
-                    newMap.setTile(x, y, (Image)tiles.get(tile));
-
-                // check if the char represents a sprite
-                else if (ch == 'o')
-                    addSprite(newMap, coinSprite, x, y);
-                else if (ch == '!')
-                    addSprite(newMap, starSprite, x, y);
-                else if (ch == '*')
-                    addSprite(newMap, goalSprite, x, y);
-                else if (ch == '1')
-                    addSprite(newMap, grubSprite, x, y);
-                else if (ch == '2')
-                    addSprite(newMap, flySprite, x, y);
-                else if (ch == '-')
-                    addSprite(newMap, trapSprite, x, y);
-            }
-        }
+    /**
+        Creates a new TileMap from the template of a level. The
+        tiles are shared with the template, the Sprites are new.
+    */
+    private TileMap createMap(MapTemplate template) {
+        TileMap newMap = new TileMap(template, this, tileImages);
 
         // add the player to the map
-        Sprite player = (Sprite)playerSprite.clone();
+        Sprite player = playerFactory.create();
         player.setX(TileMapDrawer.tilesToPixels(3));
-        player.setY(lines.size());
+        player.setY(template.getHeight());
         newMap.setPlayer(player);
 
         return newMap;
     }
 
-    private void addSprite(TileMap map,
-        Sprite hostSprite, int tileX, int tileY) {
-        if (hostSprite != null) {
-            // clone the sprite from the "host"
-            Sprite sprite = (Sprite)hostSprite.clone();
+    /**
+        Opens a map, preferring the binary version made by
+        MapConverter if it is up to date.
+    */
+    private ChunkSource openMap(File textFile) throws IOException {
+        File binaryFile = MapConverter.getBinaryFile(textFile);
+        if (binaryFile.exists() && (!textFile.exists() ||
+            binaryFile.lastModified() >= textFile.lastModified()))
+        {
+            try {
+                return new BinaryMapSource(binaryFile, tiles.size());
+            }
+            catch (IOException ex) {
+                // fall back to the text map
+                ex.printStackTrace();
+            }
+        }
+        return new TextMapSource(textFile, tiles.size());
+    }
 
+    /**
+        Creates the Sprite for a map glyph when its chunk is
+        loaded. Glyphs without a registered factory are ignored.
+    */
+    public void spawn(TileMap map, char glyph, int tileX, int tileY) {
+        Sprite sprite = spawnRegistry.create(glyph);
+        if (sprite != null) {
             // center the sprite
             sprite.setX(
                 TileMapDrawer.tilesToPixels(tileX) +
@@ -203,7 +178,7 @@ public class MapLoader {
     public void loadTileImages() {
         // keep looking for tile A,B,C, etc. this makes it
         // easy to drop new tiles in the images/ directory
-        tiles = new ArrayList<>();
+        ArrayList<CompletableFuture<Image>> futures = new ArrayList<>();
         char ch = 'A';
         
         while (true) {
@@ -212,125 +187,174 @@ public class MapLoader {
             if (!file.exists()) 
                 break;
             
-            tiles.add(loadImage(name));
+            futures.add(assets.image(name));
             ch++;
         }
+
+        tiles = new ArrayList<>();
+        for (CompletableFuture<Image> future : futures)
+            tiles.add(future.join());
+        tileImages = tiles.toArray(new Image[tiles.size()]);
+    }
+
+    /**
+        Names of the left-facing frames of every creature
+        animation: player idle, player idle (rage), player walking,
+        player walking (rage), fly, grub and trap.
+    */
+    private static final String[][] CREATURE_FRAMES = {
+        frameNames("player_idle", 12),
+        frameNames("player_idle_rage", 12),
+        frameNames("player_walk", 10),
+        frameNames("player_walk_rage", 10),
+        frameNames("pesawat", 8),
+        frameNames("alien", 8),
+        {
+            "stone1.png", "stone2.png", "stone3.png", "stone4.png",
+            "stone5.png", "stone1.png", "stone1.png", "stone1.png",
+            "stone1.png", "stone1.png", "stone1.png", "stone1.png",
+            "stone1.png", "stone1.png", "stone1.png"
+        }
+    };
+
+    private static CompletableFuture<Void> creatureFramesLoaded;
+
+    private static final String[] POWER_UP_IMAGES = {
+        "home.png", "bumi1.png", "bumi2.png", "bumi3.png", "bumi4.png",
+        "bumi5.png"
+    };
+
+    private static String[] frameNames(String prefix, int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++)
+            names[i] = prefix + (i + 1) + ".png";
+        return names;
+    }
+
+    /**
+        Starts decoding every image the game needs, including the
+        mirrored and flipped creature frames, on the shared
+        AssetPipeline. The returned future completes when all of them
+        are done. Can be called before the game starts; a MapLoader
+        created later reuses the results.
+    */
+    public static CompletableFuture<Void> preloadAssets() {
+        AssetPipeline pipeline = AssetPipeline.getShared();
+        ArrayList<CompletableFuture<Image>> futures = new ArrayList<>();
+
+        for (char ch = 'A'; new File(AssetPipeline.IMAGE_PATH + ch + ".png")
+            .exists(); ch++)
+        {
+            futures.add(pipeline.image(ch + ".png"));
+        }
+        for (String name : POWER_UP_IMAGES)
+            futures.add(pipeline.image(name));
+
+        CompletableFuture<?>[] all = futures.toArray(
+            new CompletableFuture<?>[futures.size() + 1]);
+        all[futures.size()] = loadCreatureFrames();
+        return CompletableFuture.allOf(all);
+    }
+
+    /**
+        Makes every creature frame and its mirrored and flipped
+        variants available on the shared AssetPipeline. They are read
+        from the SpriteAtlas in the cache directory if it is up to
+        date. Otherwise they are decoded and transformed in parallel,
+        and the atlas is written for the next launch.
+    */
+    private static synchronized CompletableFuture<Void> loadCreatureFrames() {
+        if (creatureFramesLoaded == null) {
+            creatureFramesLoaded = CompletableFuture.runAsync(
+                MapLoader::loadCreatureFrameAtlas);
+        }
+        return creatureFramesLoaded;
+    }
+
+    private static void loadCreatureFrameAtlas() {
+        AssetPipeline pipeline = AssetPipeline.getShared();
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        for (String[] frames : CREATURE_FRAMES)
+            names.addAll(Arrays.asList(frames));
+        File[] sources = new File[names.size()];
+        int i = 0;
+        for (String name : names)
+            sources[i++] = new File(AssetPipeline.IMAGE_PATH + name);
+
+        SpriteAtlas atlas = null;
+        try {
+            atlas = new SpriteAtlas(SpriteAtlas.getCacheDir(), sources);
+            if (atlas.exists()) {
+                for (Map.Entry<String, Image> entry : atlas.read().entrySet())
+                    pipeline.put(entry.getKey(), entry.getValue());
+                return;
+            }
+        }
+        catch (IOException ex) {
+            // rebuild the atlas below
+            ex.printStackTrace();
+        }
+
+        // request every variant before waiting for any
+        Map<String, CompletableFuture<Image>> futures = new LinkedHashMap<>();
+        for (String name : names) {
+            for (int variant = 0; variant < 4; variant++) {
+                boolean mirror = (variant & 1) != 0;
+                boolean flip = (variant & 2) != 0;
+                futures.put(AssetPipeline.variantKey(name, mirror, flip),
+                    pipeline.variant(name, mirror, flip));
+            }
+        }
+
+        Map<String, Image> images = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<Image>> entry :
+            futures.entrySet())
+        {
+            Image image = entry.getValue().join();
+            if (image.getWidth(null) <= 0)
+                return;  // missing frame, don't cache a broken atlas
+            images.put(entry.getKey(), image);
+        }
+
+        if (atlas != null) {
+            try {
+                atlas.write(images);
+            }
+            catch (IOException ex) {
+                // the game runs fine without the cache
+                ex.printStackTrace();
+            }
+        }
     }
 
     public void loadCreatureSprites() {
-        int animCount = 7;
+        loadCreatureFrames().join();
+
+        int animCount = CREATURE_FRAMES.length;
         Image[][][] images = new Image[animCount][4][];
 
-        // load left-facing images
-        images[0][0] = new Image[] {
-            loadImage("player_idle1.png"),
-            loadImage("player_idle2.png"),
-            loadImage("player_idle3.png"),
-            loadImage("player_idle4.png"),
-            loadImage("player_idle5.png"),
-            loadImage("player_idle6.png"),
-            loadImage("player_idle7.png"),
-            loadImage("player_idle8.png"),
-            loadImage("player_idle9.png"),
-            loadImage("player_idle10.png"),
-            loadImage("player_idle11.png"),
-            loadImage("player_idle12.png")
-        };
-        
-        images[1][0] = new Image[] {
-            loadImage("player_idle_rage1.png"),
-            loadImage("player_idle_rage2.png"),
-            loadImage("player_idle_rage3.png"),
-            loadImage("player_idle_rage4.png"),
-            loadImage("player_idle_rage5.png"),
-            loadImage("player_idle_rage6.png"),
-            loadImage("player_idle_rage7.png"),
-            loadImage("player_idle_rage8.png"),
-            loadImage("player_idle_rage9.png"),
-            loadImage("player_idle_rage10.png"),
-            loadImage("player_idle_rage11.png"),
-            loadImage("player_idle_rage12.png")
-        };
-        
-        images[2][0] = new Image[] {
-            loadImage("player_walk1.png"),
-            loadImage("player_walk2.png"),
-            loadImage("player_walk3.png"),
-            loadImage("player_walk4.png"),
-            loadImage("player_walk5.png"),
-            loadImage("player_walk6.png"),
-            loadImage("player_walk7.png"),
-            loadImage("player_walk8.png"),
-            loadImage("player_walk9.png"),
-            loadImage("player_walk10.png")
-        };
-        
-        images[3][0] = new Image[] {
-            loadImage("player_walk_rage1.png"),
-            loadImage("player_walk_rage2.png"),
-            loadImage("player_walk_rage3.png"),
-            loadImage("player_walk_rage4.png"),
-            loadImage("player_walk_rage5.png"),
-            loadImage("player_walk_rage6.png"),
-            loadImage("player_walk_rage7.png"),
-            loadImage("player_walk_rage8.png"),
-            loadImage("player_walk_rage9.png"),
-            loadImage("player_walk_rage10.png")
-        };
-        
-        images[4][0] = new Image[] {
-            loadImage("pesawat1.png"),
-            loadImage("pesawat2.png"),
-            loadImage("pesawat3.png"),
-            loadImage("pesawat4.png"),
-            loadImage("pesawat5.png"),
-            loadImage("pesawat6.png"),
-            loadImage("pesawat7.png"),
-            loadImage("pesawat8.png")
-        };
-        
-        images[5][0] = new Image[] {
-            loadImage("alien1.png"),
-            loadImage("alien2.png"),
-            loadImage("alien3.png"),
-            loadImage("alien4.png"),
-            loadImage("alien5.png"),
-            loadImage("alien6.png"),
-            loadImage("alien7.png"),
-            loadImage("alien8.png")
-        };
-        
-        images[6][0] = new Image[] {
-            loadImage("stone1.png"),
-            loadImage("stone2.png"),
-            loadImage("stone3.png"),
-            loadImage("stone4.png"),
-            loadImage("stone5.png"),
-            loadImage("stone1.png"),
-            loadImage("stone1.png"),
-            loadImage("stone1.png"),
-            loadImage("stone1.png"),
-            loadImage("stone1.png"),
-            loadImage("stone1.png"),
-            loadImage("stone1.png"),
-            loadImage("stone1.png"),
-            loadImage("stone1.png"),
-            loadImage("stone1.png"),
-        };
-        
-        for (int j = 1; j < 4; j++) {
-            for (int i = 0; i < animCount; i++)
-                images[i][j] = new Image[images[i][0].length];
+        // request every frame and variant before waiting for any,
+        // so they are decoded in parallel
+        List<CompletableFuture<Image>> futures = new ArrayList<>();
+        for (int i = 0; i < animCount; i++) {
+            String[] frames = CREATURE_FRAMES[i];
+            for (int j = 0; j < 4; j++) {
+                for (int k = 0; k < frames.length; k++) {
+                    // 0: left-facing, 1: right-facing (mirrored),
+                    // 2: left-facing "dead", 3: right-facing "dead"
+                    futures.add(assets.variant(frames[k],
+                        j == 1 || j == 3, j >= 2));
+                }
+            }
         }
-        
+
+        // then take them in the same order
+        int next = 0;
         for (int i = 0; i < animCount; i++) {
-            for (int j = 0; j < images[i][0].length; j++) {
-                // right-facing images
-                images[i][1][j] = getMirrorImage(images[i][0][j]);
-                // left-facing "dead" images
-                images[i][2][j] = getFlippedImage(images[i][0][j]);
-                // right-facing "dead" images
-                images[i][3][j] = getFlippedImage(images[i][1][j]);
+            for (int j = 0; j < 4; j++) {
+                images[i][j] = new Image[CREATURE_FRAMES[i].length];
+                for (int k = 0; k < images[i][j].length; k++)
+                    images[i][j][k] = futures.get(next++).join();
             }
         }
 
@@ -353,12 +377,27 @@ public class MapLoader {
             trapAnim[i] = createAnim(images[6][i], 90);
         }
 
-        // create creature sprites
-        playerSprite = new Astronot(playerIdleAnim, playerIdleRageAnim,
-            playerWalkingAnim, playerWalkingRageAnim);
-        flySprite = new Pesawat(flyAnim[0], flyAnim[1], flyAnim[2], flyAnim[3]);
-        grubSprite = new Alien(grubAnim[0], grubAnim[1], grubAnim[2], grubAnim[3]);
-        trapSprite = new Stone(trapAnim[0], trapAnim[1], trapAnim[2], trapAnim[3]);
+        // register creature factories
+        playerFactory = () -> new Astronot(playerIdleAnim.clone(),
+            playerIdleRageAnim.clone(), playerWalkingAnim.clone(),
+            playerWalkingRageAnim.clone());
+        spawnRegistry.register('2', () -> new Pesawat(copy(flyAnim[0]),
+            copy(flyAnim[1]), copy(flyAnim[2]), copy(flyAnim[3])));
+        spawnRegistry.register('1', () -> new Alien(copy(grubAnim[0]),
+            copy(grubAnim[1]), copy(grubAnim[2]), copy(grubAnim[3])));
+        spawnRegistry.register('-', () -> new Stone(copy(trapAnim[0]),
+            copy(trapAnim[1]), copy(trapAnim[2]), copy(trapAnim[3])));
+    }
+
+    /**
+        Gets the registry of Sprite factories for map glyphs.
+    */
+    public SpawnRegistry getSpawnRegistry() {
+        return spawnRegistry;
+    }
+
+    private static Animation copy(Animation anim) {
+        return (Animation)anim.clone();
     }
 
     private Animation createAnim(Image[] frames, long timePerFrame) {
@@ -370,10 +409,14 @@ public class MapLoader {
     }
 
     private void loadPowerUpSprites() {
+        // decode all power up images in parallel
+        assets.preload(POWER_UP_IMAGES).join();
+
         // create "goal" sprite
         Animation anim = new Animation();
         anim.addFrame(loadImage("home.png"), 150);
-        goalSprite = new PowerUp.Goal(anim);
+        final Animation goalAnim = anim;
+        spawnRegistry.register('*', () -> new PowerUp.Goal(copy(goalAnim)));
 
         // create "coin" sprite
         anim = new Animation();
@@ -382,7 +425,8 @@ public class MapLoader {
         anim.addFrame(loadImage("bumi3.png"), 250);
         anim.addFrame(loadImage("bumi4.png"), 250);
         anim.addFrame(loadImage("bumi5.png"), 250);
-        coinSprite = new PowerUp.Coin(anim);
+        final Animation coinAnim = anim;
+        spawnRegistry.register('o', () -> new PowerUp.Coin(copy(coinAnim)));
 
     }
 }
@@ -0,0 +1,49 @@
+package AstrozleTilegame;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+
+/**
+    A MapTemplate is the parsed form of one level. It keeps every
+    chunk it has parsed, so restarting the level creates a new
+    TileMap that shares the same chunks and only spawns fresh
+    Sprites. Nothing is read from disk again unless the garbage
+    collector needed the memory of a chunk (chunks are kept through
+    soft references).
+
+    <p>The chunks of a template are never changed: a TileMap copies
+    a chunk before changing it.
+*/
+public class MapTemplate implements ChunkSource {
+    private final ChunkSource source;
+    private final SoftReference<MapChunk>[] chunks;
+
+    /**
+        Creates a new MapTemplate for the level in the specified
+        ChunkSource.
+    */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MapTemplate(ChunkSource source) {
+        this.source = source;
+        int chunkCount = (source.getWidth() + TileMap.CHUNK_WIDTH - 1) >>
+            TileMap.CHUNK_BITS;
+        chunks = new SoftReference[chunkCount];
+    }
+
+    public int getWidth() {
+        return source.getWidth();
+    }
+
+    public int getHeight() {
+        return source.getHeight();
+    }
+
+    public synchronized MapChunk loadChunk(int index) throws IOException {
+        MapChunk chunk = (chunks[index] == null) ? null : chunks[index].get();
+        if (chunk == null) {
+            chunk = source.loadChunk(index);
+            chunks[index] = new SoftReference<>(chunk);
+        }
+        return chunk;
+    }
+}
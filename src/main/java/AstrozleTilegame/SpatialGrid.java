@@ -0,0 +1,136 @@
+package AstrozleTilegame;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import AstrozleGraphics.Sprite;
+
+/**
+    The SpatialGrid class is a broad-phase index of Sprites. The map
+    is divided into tile-sized cells, and each Sprite is kept in the
+    cell that holds its top-left corner. Lookups only visit the cells
+    that an area can overlap, so the cost does not depend on how many
+    Sprites are on the rest of the map.
+
+    <p>Sprites above, below, left or right of the map are kept in
+    the nearest border cell.
+*/
+public class SpatialGrid {
+    private final int width;
+    private final int height;
+    private final ArrayList<ArrayList<Sprite>> cells;
+    private final IdentityHashMap<Sprite, Integer> cellOf;
+
+    // largest Sprite seen, used to widen lookups to the left and up
+    private int maxSpriteWidth;
+    private int maxSpriteHeight;
+
+    /**
+        Creates a new SpatialGrid with the specified width and
+        height (in number of tiles).
+    */
+    public SpatialGrid(int width, int height) {
+        this.width = Math.max(width, 1);
+        this.height = Math.max(height, 1);
+        cells = new ArrayList<>(this.width * this.height);
+        for (int i = 0; i < this.width * this.height; i++)
+            cells.add(null);
+        cellOf = new IdentityHashMap<>();
+    }
+
+    /**
+        Gets the number of Sprites in this grid.
+    */
+    public int size() {
+        return cellOf.size();
+    }
+
+    /**
+        Adds a Sprite to the cell at its current position.
+    */
+    public void add(Sprite sprite) {
+        int cell = cellIndex(sprite);
+        addToCell(sprite, cell);
+        cellOf.put(sprite, cell);
+        growBounds(sprite);
+    }
+
+    /**
+        Removes a Sprite from this grid.
+    */
+    public void remove(Sprite sprite) {
+        Integer cell = cellOf.remove(sprite);
+        if (cell != null)
+            cells.get(cell).remove(sprite);
+    }
+
+    /**
+        Moves a Sprite to the cell at its current position. Does
+        nothing if the Sprite is still in the same cell, or if it
+        isn't in this grid.
+    */
+    public void update(Sprite sprite) {
+        Integer oldCell = cellOf.get(sprite);
+        if (oldCell == null)
+            return;
+
+        int cell = cellIndex(sprite);
+        if (cell != oldCell) {
+            cells.get(oldCell).remove(sprite);
+            addToCell(sprite, cell);
+            cellOf.put(sprite, cell);
+        }
+        growBounds(sprite);
+    }
+
+    /**
+        Adds every Sprite whose cell can overlap the specified area
+        (in pixels) to the list. The Sprites found are candidates
+        only: the caller still has to test their bounds.
+    */
+    public void query(float x, float y, int w, int h, List<Sprite> result) {
+        int left = Math.round(x);
+        int top = Math.round(y);
+        int fromX = clampX(TileMapDrawer.pixelsToTiles(left - maxSpriteWidth + 1));
+        int fromY = clampY(TileMapDrawer.pixelsToTiles(top - maxSpriteHeight + 1));
+        int toX = clampX(TileMapDrawer.pixelsToTiles(left + w - 1));
+        int toY = clampY(TileMapDrawer.pixelsToTiles(top + h - 1));
+
+        for (int cy = fromY; cy <= toY; cy++) {
+            for (int cx = fromX; cx <= toX; cx++) {
+                ArrayList<Sprite> cell = cells.get(cy * width + cx);
+                if (cell != null)
+                    result.addAll(cell);
+            }
+        }
+    }
+
+    private void addToCell(Sprite sprite, int cell) {
+        ArrayList<Sprite> list = cells.get(cell);
+        if (list == null) {
+            list = new ArrayList<>(4);
+            cells.set(cell, list);
+        }
+        list.add(sprite);
+    }
+
+    private void growBounds(Sprite sprite) {
+        maxSpriteWidth = Math.max(maxSpriteWidth, sprite.getWidth());
+        maxSpriteHeight = Math.max(maxSpriteHeight, sprite.getHeight());
+    }
+
+    private int cellIndex(Sprite sprite) {
+        int cx = clampX(TileMapDrawer.pixelsToTiles(sprite.getX()));
+        int cy = clampY(TileMapDrawer.pixelsToTiles(sprite.getY()));
+        return cy * width + cx;
+    }
+
+    private int clampX(int x) {
+        return Math.min(Math.max(x, 0), width - 1);
+    }
+
+    private int clampY(int y) {
+        return Math.min(Math.max(y, 0), height - 1);
+    }
+}
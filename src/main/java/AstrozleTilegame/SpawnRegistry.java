@@ -0,0 +1,48 @@
+package AstrozleTilegame;
+
+import AstrozleGraphics.Sprite;
+
+/**
+    The SpawnRegistry class maps the Sprite glyphs of a map file
+    ('o', '1', etc.) to factories that create a new Sprite for each
+    spawn. Factories call constructors directly, so spawning needs
+    no reflection.
+*/
+public class SpawnRegistry {
+
+    /**
+        Creates a new Sprite of type T.
+    */
+    public interface SpriteFactory<T extends Sprite> {
+        public T create();
+    }
+
+    private final SpriteFactory<?>[] factories = new SpriteFactory<?>[128];
+
+    /**
+        Registers the factory for the specified glyph, replacing
+        any factory registered before.
+    */
+    public void register(char glyph, SpriteFactory<? extends Sprite> factory) {
+        if (glyph >= factories.length)
+            throw new IllegalArgumentException("Glyph not ASCII: " + glyph);
+        factories[glyph] = factory;
+    }
+
+    /**
+        Checks if a factory is registered for the specified glyph.
+    */
+    public boolean isRegistered(char glyph) {
+        return glyph < factories.length && factories[glyph] != null;
+    }
+
+    /**
+        Creates a new Sprite for the specified glyph, or returns
+        null if no factory is registered for it.
+    */
+    public Sprite create(char glyph) {
+        if (glyph >= factories.length || factories[glyph] == null)
+            return null;
+        return factories[glyph].create();
+    }
+}
@@ -0,0 +1,127 @@
+package AstrozleTilegame;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+    The TextMapSource class reads chunks of a text map file. When
+    created, it only scans the file for the start and length of each
+    map row (lines starting with '#' are comments). Chunks are parsed
+    later by seeking into each row, so only the index of rows stays
+    in memory.
+
+    <p>In a text map, 'A' is the first tile, 'B' the second, and so
+    on. Every other character except a space is a Sprite spawn.
+*/
+public class TextMapSource implements ChunkSource {
+    private final File file;
+    private final int tileCount;
+    private long[] rowOffsets = new long[16];
+    private int[] rowLengths = new int[16];
+    private int width;
+    private int height;
+
+    /**
+        Creates a new TextMapSource for the specified file, that
+        has tileCount tile images ('A' up to 'A' + tileCount - 1).
+    */
+    public TextMapSource(File file, int tileCount) throws IOException {
+        this.file = file;
+        this.tileCount = tileCount;
+        scanRows();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public MapChunk loadChunk(int index) throws IOException {
+        int firstColumn = index * TileMap.CHUNK_WIDTH;
+        MapChunk chunk = new MapChunk(firstColumn, height);
+        byte[] row = new byte[TileMap.CHUNK_WIDTH];
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            for (int y = 0; y < height; y++) {
+                int length = Math.min(rowLengths[y] - firstColumn,
+                    TileMap.CHUNK_WIDTH);
+                if (length <= 0)
+                    continue;
+
+                in.seek(rowOffsets[y] + firstColumn);
+                in.readFully(row, 0, length);
+                for (int x = 0; x < length; x++)
+                    parse(chunk, (char)(row[x] & 0xff), x, y);
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        return chunk;
+    }
+
+    private void parse(MapChunk chunk, char ch, int localX, int y) {
+        // check if the char represents tile A, B, C etc.
+        int tile = ch - 'A';
+        if (tile >= 0 && tile < tileCount)
+            chunk.setTileId(localX, y, (short)(tile + 1));
+
+        // anything else is a sprite
+        else if (ch != ' ' && ch != '\t')
+            chunk.addSpawn(ch, chunk.getFirstColumn() + localX, y);
+    }
+
+    /**
+        Reads through the file once, recording where every row
+        starts and how long it is.
+    */
+    private void scanRows() throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            long offset = 0;
+            long lineStart = 0;
+            int lineLength = 0;
+            boolean comment = false;
+            while (true) {
+                int b = in.read();
+                if (b == -1 || b == '\n') {
+                    if (b == -1 && offset == lineStart)
+                        break;
+                    if (!comment)
+                        addRow(lineStart, lineLength);
+                    if (b == -1)
+                        break;
+
+                    lineStart = offset + 1;
+                    lineLength = 0;
+                    comment = false;
+                }
+                else if (b != '\r') {
+                    if (offset == lineStart && b == '#')
+                        comment = true;
+                    lineLength++;
+                }
+                offset++;
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private void addRow(long offset, int length) {
+        if (height == rowOffsets.length) {
+            rowOffsets = Arrays.copyOf(rowOffsets, height * 2);
+            rowLengths = Arrays.copyOf(rowLengths, height * 2);
+        }
+        rowOffsets[height] = offset;
+        rowLengths[height] = length;
+        height++;
+        width = Math.max(width, length);
+    }
+}
@@ -0,0 +1,79 @@
+package AstrozleTilegame;
+
+/**
+    A TileCollision holds the first solid tile hit by a moving
+    Sprite, as found by GameEngine.getTileCollision(): the time of
+    impact (0 at the start of the move, 1 at the end), the contact
+    normal, and the tile. The caller owns the TileCollision and can
+    reuse it for every check, so checking allocates nothing.
+*/
+public class TileCollision {
+    private boolean hit;
+    private float time;
+    private int normalX;
+    private int normalY;
+    private int tileX;
+    private int tileY;
+
+    /**
+        Checks if a tile was hit.
+    */
+    public boolean isHit() {
+        return hit;
+    }
+
+    /**
+        Gets the fraction (0 to 1) of the move done before the
+        Sprite touched the tile. 0 if the Sprite already overlapped
+        it.
+    */
+    public float getTime() {
+        return time;
+    }
+
+    /**
+        Gets the x of the contact normal: -1 if the Sprite hit the
+        tile moving right, 1 if moving left, otherwise 0.
+    */
+    public int getNormalX() {
+        return normalX;
+    }
+
+    /**
+        Gets the y of the contact normal: -1 if the Sprite hit the
+        tile moving down, 1 if moving up, otherwise 0.
+    */
+    public int getNormalY() {
+        return normalY;
+    }
+
+    /**
+        Gets the column of the tile hit.
+    */
+    public int getTileX() {
+        return tileX;
+    }
+
+    /**
+        Gets the row of the tile hit.
+    */
+    public int getTileY() {
+        return tileY;
+    }
+
+    void clear() {
+        hit = false;
+        time = 1;
+        normalX = 0;
+        normalY = 0;
+    }
+
+    void set(float time, int normalX, int normalY, int tileX, int tileY) {
+        this.hit = true;
+        this.time = time;
+        this.normalX = normalX;
+        this.normalY = normalY;
+        this.tileX = tileX;
+        this.tileY = tileY;
+    }
+}
@@ -2,22 +2,85 @@ package AstrozleTilegame;
 
 import java.awt.Image;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
+import AstrozleGraphics.EntityStore;
 import AstrozleGraphics.Sprite;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
     The TileMap class contains the data for a tile-based
-    map, including Sprites. Each tile is a reference to an
-    Image. Of course, Images are used multiple times in the tile
-    map.
+    map, including Sprites. Each tile is stored as a small id into
+    a palette of tile Images. Id 0 means "no tile".
+
+    <p>The tiles are split into chunks of CHUNK_WIDTH columns. A
+    TileMap created from a ChunkSource only parses the chunks that
+    are used: updateResidency() loads the chunks around the camera
+    and spawns their Sprites, and evicts chunks that haven't been
+    used for a while. Chunks used by a collision check are loaded on
+    demand.
+
+    <p>The Sprites of the map are kept in an EntityStore, and in a
+    SpatialGrid to find them by position. Sprites removed during a
+    tick are despawned: they leave the grid at once, and the store at
+    the end of the tick, so the Sprites being updated never move
+    around in the store.
 */
-public class TileMap {
+public class TileMap implements TileView {
+
+    public static final short EMPTY_TILE = 0;
+
+    /**
+        Number of columns in a chunk.
+        Math.pow(2, CHUNK_BITS) == CHUNK_WIDTH
+    */
+    public static final int CHUNK_BITS = 6;
+    public static final int CHUNK_WIDTH = 1 << CHUNK_BITS;
+
+    /**
+        Number of residency updates an unused chunk is kept for.
+    */
+    private static final int EVICT_AFTER = 120;
+
+    /**
+        Number of extra chunks kept loaded left and right of the
+        visible ones.
+    */
+    private static final int CHUNK_MARGIN = 1;
+
+    /**
+        Creates the Sprites for the map glyphs of a chunk.
+    */
+    public interface Spawner {
+        public void spawn(TileMap map, char glyph, int tileX, int tileY);
+    }
 
-    private Image[][] tiles;
-    private LinkedList<Sprite> sprites;
+    private final int width;
+    private final int height;
+    private final ChunkSource source;
+    private final Spawner spawner;
+    private MapChunk[] chunks;
+    private int[] chunkLastUsed;
+    private boolean[] chunkModified;
+    private boolean[] chunkSpawned;
+    private boolean[] chunkShared;
+    private int residencyCount;
+    private boolean parallelUpdate;
+    private int tileVersion;
+    private int[] columnVersions;
+    // the solid rows of every column of the loaded chunks as bits,
+    // for maps up to 64 rows high (otherwise null)
+    private long[] solidRows;
+    private boolean[] chunkSolidRowsKnown;
+    private Image[] palette;
+    private EntityStore sprites;
+    private SpatialGrid spriteGrid;
+    private int[] despawnQueue = new int[16];
+    private int despawnCount;
     private Sprite player;
 
     /**
@@ -25,8 +88,66 @@ public class TileMap {
         height (in number of tiles) of the map.
     */
     public TileMap(int width, int height) {
-        tiles = new Image[width][height];
-        sprites = new LinkedList<>();
+        this(width, height, new Image[0]);
+    }
+
+
+    /**
+        Creates a new TileMap with the specified width and
+        height (in number of tiles) of the map, and a palette of
+        tile Images. Tile id n refers to palette[n - 1]. All
+        chunks of this map stay in memory.
+    */
+    public TileMap(int width, int height, Image[] palette) {
+        this(width, height, null, null, palette);
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new MapChunk(i * CHUNK_WIDTH, height);
+            chunkModified[i] = true;
+            chunkSpawned[i] = true;
+        }
+    }
+
+
+    /**
+        Creates a new TileMap that loads its chunks from the
+        specified ChunkSource, and creates their Sprites with the
+        specified Spawner.
+    */
+    public TileMap(ChunkSource source, Spawner spawner, Image[] palette) {
+        this(source.getWidth(), source.getHeight(), source, spawner,
+            palette);
+    }
+
+
+    private TileMap(int width, int height, ChunkSource source,
+        Spawner spawner, Image[] palette)
+    {
+        this.width = width;
+        this.height = height;
+        this.source = source;
+        this.spawner = spawner;
+        this.palette = palette.clone();
+        int chunkCount = (width + CHUNK_WIDTH - 1) >> CHUNK_BITS;
+        chunks = new MapChunk[chunkCount];
+        chunkLastUsed = new int[chunkCount];
+        chunkModified = new boolean[chunkCount];
+        chunkSpawned = new boolean[chunkCount];
+        chunkShared = new boolean[chunkCount];
+        columnVersions = new int[width];
+        if (height <= 64) {
+            solidRows = new long[width];
+            chunkSolidRowsKnown = new boolean[chunkCount];
+        }
+        sprites = new EntityStore();
+        spriteGrid = new SpatialGrid(width, height);
+    }
+
+
+    /**
+        Gets this TileMap.
+    */
+    public TileMap getMap() {
+        return this;
     }
 
 
@@ -34,7 +155,7 @@ public class TileMap {
         Gets the width of this TileMap (number of tiles across).
     */
     public int getWidth() {
-        return tiles.length;
+        return width;
     }
 
 
@@ -42,7 +163,7 @@ public class TileMap {
         Gets the height of this TileMap (number of tiles down).
     */
     public int getHeight() {
-        return tiles[0].length;
+        return height;
     }
 
 
@@ -52,22 +173,278 @@ public class TileMap {
         bounds.
     */
     public Image getTile(int x, int y) {
-        if (x < 0 || x >= getWidth() ||
-            y < 0 || y >= getHeight())
+        return getTileImage(getTileId(x, y));
+    }
+
+
+    /**
+        Gets the id of the tile at the specified location. Returns
+        EMPTY_TILE if no tile is at the location or if the location
+        is out of bounds.
+    */
+    public short getTileId(int x, int y) {
+        if (x < 0 || x >= width ||
+            y < 0 || y >= height)
         {
-            return null;
+            return EMPTY_TILE;
         }
         else {
-            return tiles[x][y];
+            return getChunk(x >> CHUNK_BITS)
+                .getTileId(x & (CHUNK_WIDTH - 1), y);
+        }
+    }
+
+
+    /**
+        Gets the Image of the specified tile id, or null for
+        EMPTY_TILE.
+    */
+    public Image getTileImage(short id) {
+        return (id == EMPTY_TILE) ? null : palette[id - 1];
+    }
+
+
+    /**
+        Gets the palette of tile Images. The array is replaced, not
+        changed, when a tile Image is added.
+    */
+    Image[] getPalette() {
+        return palette;
+    }
+
+
+    /**
+        Checks if the tile at the specified location is solid.
+        Locations out of bounds are not solid.
+    */
+    public boolean isSolid(int x, int y) {
+        if (x < 0 || x >= width ||
+            y < 0 || y >= height)
+        {
+            return false;
         }
+        if (solidRows != null && chunkSolidRowsKnown[x >> CHUNK_BITS])
+            return (solidRows[x] & (1L << y)) != 0;
+        return getChunk(x >> CHUNK_BITS)
+            .isSolid(x & (CHUNK_WIDTH - 1), y);
     }
 
 
     /**
-        Sets the tile at the specified location.
+        Gets the first solid row from row fromY to row toY (inclusive)
+        of the columns fromX to toX (inclusive), or -1 if none is
+        solid. Locations out of bounds are not solid. The rows of a
+        column are checked with one mask, so this is much cheaper
+        than calling isSolid() for each.
+    */
+    public int getFirstSolidRow(int fromX, int toX, int fromY, int toY) {
+        fromX = Math.max(fromX, 0);
+        toX = Math.min(toX, width - 1);
+        fromY = Math.max(fromY, 0);
+        toY = Math.min(toY, height - 1);
+        if (fromX > toX || fromY > toY)
+            return -1;
+        if (solidRows != null) {
+            long bits = 0;
+            for (int x = fromX; x <= toX; x++) {
+                if (!chunkSolidRowsKnown[x >> CHUNK_BITS])
+                    getChunk(x >> CHUNK_BITS);
+                bits |= solidRows[x];
+            }
+            bits &= (-1L << fromY) & (-1L >>> (63 - toY));
+            return (bits == 0) ? -1 : Long.numberOfTrailingZeros(bits);
+        }
+        int firstRow = -1;
+        for (int x = fromX; x <= toX; x++) {
+            int row = getChunk(x >> CHUNK_BITS).getFirstSolidRow(
+                x & (CHUNK_WIDTH - 1), fromY, toY);
+            if (row >= 0 && (firstRow < 0 || row < firstRow))
+                firstRow = row;
+        }
+        return firstRow;
+    }
+
+    /**
+        Sets the tile at the specified location. Images not in the
+        palette yet are added to it.
     */
     public void setTile(int x, int y, Image tile) {
-        tiles[x][y] = tile;
+        if (tile == null) {
+            setTileId(x, y, EMPTY_TILE);
+            return;
+        }
+
+        for (int i = 0; i < palette.length; i++) {
+            if (palette[i] == tile) {
+                setTileId(x, y, (short)(i + 1));
+                return;
+            }
+        }
+
+        palette = Arrays.copyOf(palette, palette.length + 1);
+        palette[palette.length - 1] = tile;
+        setTileId(x, y, (short)palette.length);
+    }
+
+
+    /**
+        Sets the id of the tile at the specified location. Every
+        tile other than EMPTY_TILE is solid. A changed chunk is a
+        copy owned by this map, and is never evicted.
+    */
+    public void setTileId(int x, int y, short id) {
+        int index = x >> CHUNK_BITS;
+        MapChunk chunk = getChunk(index);
+        if (!chunkModified[index] || chunkShared[index]) {
+            // loaded chunks may be shared, change a private copy
+            chunk = chunk.copy();
+            chunks[index] = chunk;
+            chunkModified[index] = true;
+            chunkShared[index] = false;
+        }
+        chunk.setTileId(x & (CHUNK_WIDTH - 1), y, id);
+        if (solidRows != null)
+            solidRows[x] = chunk.getSolidRows(x & (CHUNK_WIDTH - 1));
+        tileVersion++;
+        columnVersions[x] = tileVersion;
+    }
+
+
+    /**
+        Gets a number that changes every time a tile is set, so
+        drawers can tell when cached tile images are out of date.
+    */
+    public int getTileVersion() {
+        return tileVersion;
+    }
+
+
+    /**
+        Gets the tile version of the last time a tile in the
+        specified column was set, or 0 if none was, so drawers only
+        redraw the columns that changed.
+    */
+    public int getColumnVersion(int x) {
+        return (x < 0 || x >= width) ? 0 : columnVersions[x];
+    }
+
+
+    /**
+        Loads the chunks around the specified columns (usually
+        the visible ones) and spawns their Sprites, then evicts
+        chunks that haven't been used for a while. Should be
+        called once per update, outside of any Sprite iteration.
+    */
+    public void updateResidency(int firstTileX, int lastTileX) {
+        residencyCount++;
+        int firstChunk = Math.max((firstTileX >> CHUNK_BITS) - CHUNK_MARGIN, 0);
+        int lastChunk = Math.min((lastTileX >> CHUNK_BITS) + CHUNK_MARGIN,
+            chunks.length - 1);
+
+        for (int i = firstChunk; i <= lastChunk; i++) {
+            MapChunk chunk = getChunk(i);
+            if (!chunkSpawned[i]) {
+                chunkSpawned[i] = true;
+                for (int j = 0; j < chunk.getSpawnCount(); j++)
+                    spawner.spawn(this, chunk.getSpawnGlyph(j),
+                        chunk.getSpawnX(j), chunk.getSpawnY(j));
+            }
+        }
+
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] != null && !chunkModified[i] &&
+                residencyCount - chunkLastUsed[i] > EVICT_AFTER)
+            {
+                chunks[i] = null;
+            }
+        }
+    }
+
+
+    /**
+        Copies the references to the chunks holding the specified
+        columns into the array, and null for every other chunk. The
+        chunks are never changed afterwards (setTileId() changes a
+        copy), so they can be read from another thread.
+    */
+    public void shareChunks(int firstTileX, int lastTileX, MapChunk[] result) {
+        int firstChunk = Math.max(firstTileX >> CHUNK_BITS, 0);
+        int lastChunk = Math.min(lastTileX >> CHUNK_BITS, chunks.length - 1);
+        for (int i = 0; i < chunks.length; i++) {
+            if (i >= firstChunk && i <= lastChunk) {
+                result[i] = getChunk(i);
+                chunkShared[i] = true;
+            }
+            else {
+                result[i] = null;
+            }
+        }
+    }
+
+
+    /**
+        Gets the number of chunks in this map.
+    */
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+
+    /**
+        Gets the number of chunks currently in memory.
+    */
+    public int getResidentChunkCount() {
+        int count = 0;
+        for (MapChunk chunk : chunks) {
+            if (chunk != null)
+                count++;
+        }
+        return count;
+    }
+
+
+    /**
+        Sets whether Sprites are being updated on several threads.
+        Meanwhile, only the chunks marked by the last
+        updateResidency() can be read.
+    */
+    void setParallelUpdate(boolean parallelUpdate) {
+        this.parallelUpdate = parallelUpdate;
+    }
+
+
+    private MapChunk getChunk(int index) {
+        // resident chunks were already marked by updateResidency(),
+        // so reading them from several threads writes nothing
+        if (parallelUpdate &&
+            (chunks[index] == null || chunkLastUsed[index] != residencyCount))
+        {
+            throw new IllegalStateException("Chunk " + index +
+                " isn't resident during a parallel update");
+        }
+        if (chunkLastUsed[index] != residencyCount)
+            chunkLastUsed[index] = residencyCount;
+        MapChunk chunk = chunks[index];
+        if (chunk == null) {
+            try {
+                chunk = source.loadChunk(index);
+            }
+            catch (IOException ex) {
+                ex.printStackTrace();
+                chunk = new MapChunk(index * CHUNK_WIDTH, height);
+            }
+            chunks[index] = chunk;
+        }
+        if (solidRows != null && !chunkSolidRowsKnown[index]) {
+            // tiles only change through setTileId(), so the bits stay
+            // right after the chunk is evicted
+            int first = index << CHUNK_BITS;
+            int count = Math.min(CHUNK_WIDTH, width - first);
+            for (int i = 0; i < count; i++)
+                solidRows[first + i] = chunk.getSolidRows(i);
+            chunkSolidRowsKnown[index] = true;
+        }
+        return chunk;
     }
 
 
@@ -88,18 +465,95 @@ public class TileMap {
 
 
     /**
-        Adds a Sprite object to this map.
+        Adds a Sprite object to this map. The Sprite keeps its state
+        in the EntityStore of this map until it's removed.
     */
     public void addSprite(Sprite sprite) {
         sprites.add(sprite);
+        spriteGrid.add(sprite);
     }
 
 
     /**
-        Removes a Sprite object from this map.
+        Removes a Sprite object from this map at once. During a
+        tick, use despawn() instead.
     */
     public void removeSprite(Sprite sprite) {
         sprites.remove(sprite);
+        spriteGrid.remove(sprite);
+    }
+
+
+    /**
+        Removes a Sprite object from this map at the end of the tick.
+        It's no longer found by getSpritesNear(), so it isn't drawn or
+        collided with anymore, but it stays in the EntityStore until
+        applyDespawns(). Despawning a Sprite twice, or a Sprite not in
+        this map, does nothing.
+    */
+    public void despawn(Sprite sprite) {
+        if (sprite.getStore() != sprites)
+            return;
+        spriteGrid.remove(sprite);
+        if (despawnCount == despawnQueue.length)
+            despawnQueue = Arrays.copyOf(despawnQueue, despawnCount * 2);
+        despawnQueue[despawnCount++] = sprite.getHandle();
+    }
+
+
+    /**
+        Removes the Sprites despawned since the last call. Should be
+        called once per update, at the end of the tick, outside of
+        any Sprite iteration.
+    */
+    public void applyDespawns() {
+        for (int i = 0; i < despawnCount; i++) {
+            // the handle of a Sprite despawned twice is already gone
+            Sprite sprite = sprites.lookup(despawnQueue[i]);
+            if (sprite != null)
+                sprites.remove(sprite);
+        }
+        despawnCount = 0;
+    }
+
+
+    /**
+        Tells the map that a Sprite may have moved, so it can be
+        found near its new position.
+    */
+    public void updateSprite(Sprite sprite) {
+        spriteGrid.update(sprite);
+    }
+
+
+    /**
+        Adds the Sprites that may overlap the specified area (in
+        pixels) to the list, excluding the player Sprite.
+    */
+    public void getSpritesNear(float x, float y, int width, int height,
+        List<Sprite> result)
+    {
+        spriteGrid.query(x, y, width, height, result);
+    }
+
+
+    /**
+        Gets the number of Sprites in this map, excluding the player
+        Sprite.
+    */
+    public int getSpriteCount() {
+        return sprites.size();
+    }
+
+
+    /**
+        Saves the position of the player and every Sprite, so
+        drawing can interpolate from it during the next tick.
+    */
+    public void savePositions() {
+        if (player != null)
+            player.savePosition();
+        sprites.savePositions();
     }
 
 
@@ -107,8 +561,31 @@ public class TileMap {
         Gets an Iterator of all the Sprites in this map,
         excluding the player Sprite.
     */
-    public Iterator getSprites() {
-        return sprites.iterator();
+    public Iterator<Sprite> getSprites() {
+        return new Iterator<Sprite>() {
+            private int next;
+            private Sprite current;
+
+            public boolean hasNext() {
+                return next < sprites.size();
+            }
+
+            public Sprite next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                current = sprites.get(next++);
+                return current;
+            }
+
+            public void remove() {
+                if (current == null)
+                    throw new IllegalStateException();
+                // the last Sprite moves into the removed one's place
+                removeSprite(current);
+                current = null;
+                next--;
+            }
+        };
     }
 
 }
@@ -1,11 +1,17 @@
 package AstrozleTilegame;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
+import AstrozleGraphics.ImageManager;
 import AstrozleGraphics.Sprite;
-import AstrozleTilegame.sprites.Creature;
 
 /**
     The TileMapRenderer class draws a TileMap on the screen.
@@ -19,6 +25,24 @@ import AstrozleTilegame.sprites.Creature;
     <p>Also, three static methods are provided to convert pixels
     to tile positions, and vice-versa.
 
+    <p>The tiles never move, so they are pre-rendered into cached
+    VolatileImage strips of STRIP_TILES columns. Each frame only
+    blits the two or three visible strips. A strip is rendered again
+    when it scrolls into view, when a tile in its columns changes, or
+    when its contents are lost. Blitting whole strips only pays off
+    when volatile images are accelerated, so the cache is only used
+    then, unless -Dastrozle.tileCache is true or false.
+
+    <p>Background images are baked into layers when they are set:
+    neighboring images with the same width and parallax factor move
+    together, so they are composited once into a single image. While
+    drawing, the layers behind an opaque layer that covers the whole
+    screen are skipped.
+
+    <p>Only what is on screen is drawn: the Sprites are looked up
+    in the spatial grid of the map around the visible columns, and
+    the tile rows above and below the screen are skipped.
+
     <p>This TileMapRender uses a tile size of 64.
 */
 public class TileMapDrawer {
@@ -27,10 +51,33 @@ public class TileMapDrawer {
     // Math.pow(2, TILE_SIZE_BITS) == TILE_SIZE
     private static final int TILE_SIZE_BITS = 6;
 
+    // number of tile columns in one cached strip
+    static final int STRIP_TILES = 8;
+
+    private final HashMap<Integer, VolatileImage> tileStrips = new HashMap<>();
+    private TileMap stripMap;
+    // the tile version each strip was rendered at
+    private int[] stripVersions = new int[0];
+    private String tileCacheSetting = System.getProperty("astrozle.tileCache");
+    private boolean tileCacheEnabled = !"false".equals(tileCacheSetting);
+
+    private Image[] backgroundSources;
     private Image[] backgrounds;
     private int[] backgroundStartPositions;
     private float[] backgroundParallaxFactors;
+    private boolean[] backgroundOpaque;
+    private int[] backgroundX;
+    private long backgroundFrames;
+    private long backgroundBlits;
     
+    private final ArrayList<Sprite> visibleSprites = new ArrayList<>();
+    private long cullFrames;
+    private long spritesDrawn;
+    private long spritesCulled;
+    private long tileRowsDrawn;
+    private long tileRowsCulled;
+    private int startPositionResets;
+
     private Image[] foregrounds;
     private int[] foregroundStartPositions;
     private float[] foregroundParallaxFactors;
@@ -68,17 +115,27 @@ public class TileMapDrawer {
     }
 
     /**
-        Sets the backgrounds to draw.
+        Gets the horizontal scrolling position of the map, based
+        on the player's position (in pixels).
+    */
+    public static int getOffsetX(TileMap map, int playerX, int screenWidth) {
+        int mapWidth = tilesToPixels(map.getWidth());
+        int offsetX = screenWidth / 2 -
+            playerX - TILE_SIZE;
+        offsetX = Math.min(offsetX, 0);
+        offsetX = Math.max(offsetX, screenWidth - mapWidth);
+        return offsetX;
+    }
+
+    /**
+        Sets the backgrounds to draw, from back to front.
     */
     public void setBackgrounds(Image[] backgrounds) {
         if (backgrounds == null)
             return;
         
-        this.backgrounds = backgrounds;
-        
-        this.backgroundStartPositions = new int[backgrounds.length];
-        for (int i = 0; i < backgrounds.length; i++)
-            this.backgroundStartPositions[i] = 0;
+        this.backgroundSources = backgrounds;
+        setBackgroundParallaxFactors(new float[0]);
     }
     
     /**
@@ -96,17 +153,98 @@ public class TileMapDrawer {
     }
     
     /**
-     * Sets a list of parallax factor, one for each background image.
+     * Sets a list of parallax factor, one for each background image,
+     * and bakes the background layers.
      */
     public void setBackgroundParallaxFactors(float[] parallaxFactors) {
-        if (backgrounds == null)
+        if (backgroundSources == null)
             return;
         
-        this.backgroundParallaxFactors = new float[backgrounds.length];
-        for (int i = 0; i < backgrounds.length; i++)
-            this.backgroundParallaxFactors[i] = 1f;
+        float[] factors = new float[backgroundSources.length];
+        for (int i = 0; i < backgroundSources.length; i++)
+            factors[i] = 1f;
+        
+        System.arraycopy(parallaxFactors, 0, factors, 0, parallaxFactors.length);
+        bakeBackgrounds(factors);
+    }
+    
+    /**
+     * Merges neighboring background images with the same width and
+     * parallax factor into one layer. Images that failed to load are
+     * left out.
+     */
+    private void bakeBackgrounds(float[] factors) {
+        int count = 0;
+        Image[] layers = new Image[backgroundSources.length];
+        float[] layerFactors = new float[backgroundSources.length];
         
-        System.arraycopy(parallaxFactors, 0, this.backgroundParallaxFactors, 0, parallaxFactors.length);
+        int i = 0;
+        while (i < backgroundSources.length) {
+            int width = backgroundSources[i].getWidth(null);
+            if (width <= 0) {
+                i++;
+                continue;
+            }
+            
+            // find the images that move together with this one
+            int end = i + 1;
+            int height = backgroundSources[i].getHeight(null);
+            while (end < backgroundSources.length &&
+                backgroundSources[end].getWidth(null) == width &&
+                factors[end] == factors[i])
+            {
+                height = Math.max(height, backgroundSources[end].getHeight(null));
+                end++;
+            }
+            
+            if (end - i == 1) {
+                layers[count] = backgroundSources[i];
+            }
+            else {
+                // bottom-justify each image, like applyBackgroundParallax()
+                BufferedImage layer = new BufferedImage(width, height,
+                    BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = layer.createGraphics();
+                for (int j = i; j < end; j++) {
+                    g.drawImage(backgroundSources[j], 0,
+                        height - backgroundSources[j].getHeight(null), null);
+                }
+                g.dispose();
+                layers[count] = ImageManager.getShared().manage(
+                    "background layer " + count, layer);
+            }
+            layerFactors[count] = factors[i];
+            count++;
+            i = end;
+        }
+        
+        this.backgrounds = new Image[count];
+        this.backgroundParallaxFactors = new float[count];
+        this.backgroundStartPositions = new int[count];
+        this.backgroundOpaque = new boolean[count];
+        this.backgroundX = new int[count];
+        System.arraycopy(layers, 0, this.backgrounds, 0, count);
+        System.arraycopy(layerFactors, 0, this.backgroundParallaxFactors, 0, count);
+        for (int j = 0; j < count; j++) {
+            backgroundOpaque[j] = (backgrounds[j] instanceof Transparency) &&
+                ((Transparency)backgrounds[j]).getTransparency() ==
+                Transparency.OPAQUE;
+        }
+    }
+    
+    /**
+     * Gets a report of the background blits saved by baking and
+     * skipping covered layers, or null if no backgrounds were drawn.
+     */
+    public String getBackgroundReport() {
+        if (backgroundFrames == 0)
+            return null;
+        long unbaked = backgroundFrames * 2 * backgroundSources.length;
+        return "Background: " + backgroundSources.length + " images baked into " +
+            backgrounds.length + " layers, " + (unbaked - backgroundBlits) +
+            " of " + unbaked + " blits saved (" +
+            String.format("%.1f", (float)backgroundBlits / backgroundFrames) +
+            " per frame)";
     }
     
     /**
@@ -127,7 +265,7 @@ public class TileMapDrawer {
      * Resets start position to zero for all background / foreground images.
      */
     public void resetStartPositions() {
-        if (backgrounds != null) {
+        if (backgroundStartPositions != null) {
             for (int i = 0; i < backgrounds.length; i++)
                 this.backgroundStartPositions[i] = 0;
         }
@@ -139,16 +277,23 @@ public class TileMapDrawer {
     }
 
     /**
-     * Apply parallax effect to the image with infinite scrolling
-     * @param g
-     * @param index
-     * @param screenWidth
-     * @param screenHeight
-     * @param offsetX
-     * @param mapWidth 
+     * Resets the start positions if resetStartPositions() was asked
+     * for by the update thread since the last call, counted by
+     * resets.
      */
-    private void applyBackgroundParallax(Graphics2D g, int index, int screenWidth, int screenHeight,
-        int offsetX, int mapWidth) {
+    void syncStartPositions(int resets) {
+        if (resets != startPositionResets) {
+            startPositionResets = resets;
+            resetStartPositions();
+        }
+    }
+
+    /**
+     * Moves a background layer with infinite scrolling, and gets
+     * the x position of its right copy.
+     */
+    private int getBackgroundX(int index, int screenWidth, int offsetX,
+        int mapWidth) {
         int temp = ((int)(offsetX * backgroundParallaxFactors[index])) *
             (screenWidth - backgrounds[index].getWidth(null)) /
             (screenWidth - mapWidth);
@@ -157,11 +302,45 @@ public class TileMapDrawer {
         if (temp - screenWidth < backgroundStartPositions[index] - backgrounds[index].getWidth(null))
             backgroundStartPositions[index] -= backgrounds[index].getWidth(null);
 
-        int x = temp - backgroundStartPositions[index];
-        int y = screenHeight - backgrounds[index].getHeight(null);
+        return temp - backgroundStartPositions[index];
+    }
+    
+    /**
+     * Checks if a background layer, at its current position, hides
+     * everything behind it.
+     */
+    private boolean coversScreen(int index, int screenWidth, int screenHeight) {
+        int width = backgrounds[index].getWidth(null);
+        int x = backgroundX[index];
+        return backgroundOpaque[index] &&
+            backgrounds[index].getHeight(null) >= screenHeight &&
+            x - width <= 0 && x + width >= screenWidth;
+    }
+    
+    /**
+     * Apply parallax effect to the background layers with infinite
+     * scrolling, starting at the front-most layer that covers the
+     * screen.
+     */
+    private void applyBackgroundParallax(Graphics2D g, int screenWidth, int screenHeight,
+        int offsetX, int mapWidth) {
+        // every layer keeps scrolling, even when it's hidden
+        for (int i = 0; i < backgrounds.length; i++)
+            backgroundX[i] = getBackgroundX(i, screenWidth, offsetX, mapWidth);
+
+        int first = backgrounds.length - 1;
+        while (first >= 0 && !coversScreen(first, screenWidth, screenHeight))
+            first--;
 
-        g.drawImage(backgrounds[index], x - backgrounds[index].getWidth(null), y, null);
-        g.drawImage(backgrounds[index], x, y, null);
+        ImageManager images = ImageManager.getShared();
+        for (int i = Math.max(first, 0); i < backgrounds.length; i++) {
+            int x = backgroundX[i];
+            int y = screenHeight - backgrounds[i].getHeight(null);
+            images.drawHot(g, backgrounds[i], x - backgrounds[i].getWidth(null), y);
+            images.drawHot(g, backgrounds[i], x, y);
+        }
+        backgroundFrames++;
+        backgroundBlits += 2 * (backgrounds.length - Math.max(first, 0));
     }
     
     private void applyForegroundParallax(Graphics2D g, int index, int screenWidth, int screenHeight,
@@ -177,83 +356,351 @@ public class TileMapDrawer {
         int x = temp - foregroundStartPositions[index];
         int y = screenHeight - foregrounds[index].getHeight(null);
 
-        g.drawImage(foregrounds[index], x - foregrounds[index].getWidth(null), y, null);
-        g.drawImage(foregrounds[index], x, y, null);
+        ImageManager images = ImageManager.getShared();
+        images.drawHot(g, foregrounds[index], x - foregrounds[index].getWidth(null), y);
+        images.drawHot(g, foregrounds[index], x, y);
     }
     
+    /**
+        Enables or disables the cached tile strips, whether volatile
+        images are accelerated or not. When disabled, every visible
+        tile is drawn every frame.
+    */
+    public void setTileCacheEnabled(boolean enabled) {
+        tileCacheSetting = String.valueOf(enabled);
+        tileCacheEnabled = enabled;
+        if (!enabled)
+            flushTileStrips();
+    }
+
+    /**
+        Gets a report of the Sprites and tile rows drawn and culled
+        per frame, or null if nothing was drawn.
+    */
+    public String getCullingReport() {
+        if (cullFrames == 0)
+            return null;
+        return String.format("Culling: %.1f sprites drawn, %.1f culled; " +
+            "%.1f tile rows drawn, %.1f culled (per frame)",
+            (float)spritesDrawn / cullFrames,
+            (float)spritesCulled / cullFrames,
+            (float)tileRowsDrawn / cullFrames,
+            (float)tileRowsCulled / cullFrames);
+    }
+
+    /**
+        Draws the tiles in the specified columns and rows one by
+        one.
+    */
+    private void drawTiles(Graphics2D g, TileView map, int firstTileX,
+        int lastTileX, int firstTileY, int lastTileY, int offsetX,
+        int offsetY)
+    {
+        for (int y=firstTileY; y<=lastTileY; y++) {
+            for (int x=firstTileX; x <= lastTileX; x++) {
+                short id = map.getTileId(x, y);
+                if (id != TileMap.EMPTY_TILE) {
+                    Image image = map.getTileImage(id);
+                    g.drawImage(image,
+                        tilesToPixels(x) + offsetX,
+                        tilesToPixels(y) + offsetY,
+                        null);
+                }
+            }
+        }
+    }
+
+    /**
+        Draws the tiles in the specified columns by blitting the
+        cached strips that hold them.
+    */
+    private void drawTileStrips(Graphics2D g, TileView map, int firstTileX,
+        int lastTileX, int firstTileY, int lastTileY, int offsetX,
+        int offsetY)
+    {
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        if (tileCacheSetting == null) {
+            // decide once, unless set
+            tileCacheSetting = String.valueOf(isAccelerated(gc, map));
+            tileCacheEnabled = Boolean.parseBoolean(tileCacheSetting);
+            if (!tileCacheEnabled) {
+                drawTiles(g, map, firstTileX, lastTileX,
+                    firstTileY, lastTileY, offsetX, offsetY);
+                return;
+            }
+        }
+
+        // a new map makes every strip stale
+        int tileVersion = map.getTileVersion();
+        if (map.getMap() != stripMap) {
+            flushTileStrips();
+            stripMap = map.getMap();
+            stripVersions = new int[(map.getWidth() + STRIP_TILES - 1) / STRIP_TILES];
+            Arrays.fill(stripVersions, tileVersion);
+        }
+
+        int firstStrip = Math.max(firstTileX, 0) / STRIP_TILES;
+        int lastStrip = Math.min(lastTileX, map.getWidth() - 1) / STRIP_TILES;
+
+        // drop the strips that scrolled out of view
+        Iterator<Map.Entry<Integer, VolatileImage>> i =
+            tileStrips.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<Integer, VolatileImage> entry = i.next();
+            if (entry.getKey() < firstStrip - 1 || entry.getKey() > lastStrip + 1) {
+                entry.getValue().flush();
+                i.remove();
+            }
+        }
+
+        for (int strip = firstStrip; strip <= lastStrip; strip++) {
+            int x = tilesToPixels(strip * STRIP_TILES) + offsetX;
+            VolatileImage image = tileStrips.get(strip);
+            // a changed tile makes only its strip stale
+            if (stripVersions[strip] != tileVersion) {
+                if (image != null && isStripChanged(map, strip))
+                    renderTileStrip(image, map, strip);
+                stripVersions[strip] = tileVersion;
+            }
+            do {
+                int valid = (image == null) ?
+                    VolatileImage.IMAGE_INCOMPATIBLE : image.validate(gc);
+                if (valid == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    if (image != null)
+                        image.flush();
+                    image = gc.createCompatibleVolatileImage(
+                        tilesToPixels(STRIP_TILES),
+                        tilesToPixels(map.getHeight()),
+                        Transparency.BITMASK);
+                    if (image == null) {
+                        // no volatile images here, draw tile by tile
+                        drawTiles(g, map, strip * STRIP_TILES,
+                            strip * STRIP_TILES + STRIP_TILES - 1,
+                            firstTileY, lastTileY, offsetX, offsetY);
+                        break;
+                    }
+                    tileStrips.put(strip, image);
+                    renderTileStrip(image, map, strip);
+                }
+                else if (valid == VolatileImage.IMAGE_RESTORED) {
+                    renderTileStrip(image, map, strip);
+                }
+                g.drawImage(image, x, offsetY, null);
+            } while (image.contentsLost());
+        }
+    }
+
+    /**
+        Renders the tiles of a strip into its cached image.
+    */
+    private void renderTileStrip(VolatileImage image, TileView map, int strip) {
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setComposite(AlphaComposite.SrcOver);
+        drawTiles(g, map, strip * STRIP_TILES,
+            strip * STRIP_TILES + STRIP_TILES - 1,
+            0, map.getHeight() - 1,
+            -tilesToPixels(strip * STRIP_TILES), 0);
+        g.dispose();
+    }
+
+    /**
+        Checks if a tile in a strip was set since it was rendered.
+    */
+    private boolean isStripChanged(TileView map, int strip) {
+        int lastX = Math.min(strip * STRIP_TILES + STRIP_TILES, map.getWidth());
+        for (int x = strip * STRIP_TILES; x < lastX; x++) {
+            if (map.getColumnVersion(x) > stripVersions[strip])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+        Checks if a volatile image the size of a strip is
+        accelerated on the specified configuration.
+    */
+    private boolean isAccelerated(GraphicsConfiguration gc, TileView map) {
+        VolatileImage probe = gc.createCompatibleVolatileImage(
+            tilesToPixels(STRIP_TILES), tilesToPixels(map.getHeight()),
+            Transparency.BITMASK);
+        if (probe == null)
+            return false;
+        boolean accelerated = probe.getCapabilities().isAccelerated();
+        probe.flush();
+        return accelerated;
+    }
+
+    private void flushTileStrips() {
+        for (VolatileImage image : tileStrips.values())
+            image.flush();
+        tileStrips.clear();
+        stripMap = null;
+    }
+
     /**
         Draws the specified TileMap.
     */
     public void draw(Graphics2D g, TileMap map,
         int screenWidth, int screenHeight) {
-        Sprite player = map.getPlayer();
-        int mapWidth = tilesToPixels(map.getWidth());
+        draw(g, map, screenWidth, screenHeight, 1f);
+    }
 
-        // get the scrolling position of the map
-        // based on player's position
-        int offsetX = screenWidth / 2 -
-            Math.round(player.getX()) - TILE_SIZE;
-        offsetX = Math.min(offsetX, 0);
-        offsetX = Math.max(offsetX, screenWidth - mapWidth);
+    /**
+        Draws the specified TileMap, placing each Sprite at alpha
+        (0 to 1) between its saved and its current position.
+    */
+    public void draw(Graphics2D g, TileMap map,
+        int screenWidth, int screenHeight, float alpha) {
+        Sprite player = map.getPlayer();
+        int playerX = Math.round(player.getInterpolatedX(alpha));
+        int offsetX = getOffsetX(map, playerX, screenWidth);
 
         // get the y offset to draw all sprites and tiles
         int offsetY = screenHeight -
             tilesToPixels(map.getHeight());
 
-        // draw black background, if needed
-        if (backgrounds == null || backgrounds.length == 0 ||
-            screenHeight > backgrounds[0].getHeight(null)) {
-            g.setColor(Color.black);
-            g.fillRect(0, 0, screenWidth, screenHeight);
-        }
+        drawBackgrounds(g, map, screenWidth, screenHeight, offsetX);
+        drawVisibleTiles(g, map, screenWidth, screenHeight, offsetX, offsetY);
 
-        // draw parallax background images
-        if (backgrounds != null) {
-            for (int i = 0; i < backgrounds.length; i++)
-                applyBackgroundParallax(g, i, screenWidth, screenHeight, offsetX, mapWidth);
-        }
+        // draw player
+        g.drawImage(player.getImage(),
+            playerX + offsetX,
+            Math.round(player.getInterpolatedY(alpha)) + offsetY,
+            null);
 
-        // draw the visible tiles
-        int firstTileX = pixelsToTiles(-offsetX);
-        int lastTileX = firstTileX + pixelsToTiles(screenWidth) + 1;
-        for (int y=0; y<map.getHeight(); y++) {
-            for (int x=firstTileX; x <= lastTileX; x++) {
-                Image image = map.getTile(x, y);
-                if (image != null) {
-                    g.drawImage(image,
-                        tilesToPixels(x) + offsetX,
-                        tilesToPixels(y) + offsetY,
-                        null);
-                }
-            }
+        // draw sprites in the visible columns, with a tile of margin
+        // for the distance moved since the saved position
+        visibleSprites.clear();
+        map.getSpritesNear(-offsetX - TILE_SIZE, 0,
+            screenWidth + 2 * TILE_SIZE, tilesToPixels(map.getHeight()),
+            visibleSprites);
+        int drawn = 0;
+        for (int i = 0; i < visibleSprites.size(); i++) {
+            Sprite sprite = visibleSprites.get(i);
+            int x = Math.round(sprite.getInterpolatedX(alpha)) + offsetX;
+            int y = Math.round(sprite.getInterpolatedY(alpha)) + offsetY;
+            if (drawSprite(g, sprite.getImage(), x, y, screenWidth, screenHeight))
+                drawn++;
         }
+        visibleSprites.clear();
+        cullFrames++;
+        spritesDrawn += drawn;
+        spritesCulled += map.getSpriteCount() - drawn;
+        
+        drawForegrounds(g, map, screenWidth, screenHeight, offsetX);
+    }
+
+    /**
+        Draws a WorldSnapshot, placing each Sprite at alpha (0 to 1)
+        between its position at the start and at the end of the
+        captured tick. Only reads the snapshot, so it can run on a
+        render thread while the next tick is simulated.
+    */
+    void draw(Graphics2D g, WorldSnapshot world, float alpha) {
+        int screenWidth = world.getScreenWidth();
+        int screenHeight = world.getScreenHeight();
+        syncStartPositions(world.getBackgroundResets());
+
+        int playerX = Math.round(world.getPlayerX(alpha));
+        int offsetX = getOffsetX(world.getMap(), playerX, screenWidth);
+        int offsetY = screenHeight -
+            tilesToPixels(world.getHeight());
+
+        drawBackgrounds(g, world, screenWidth, screenHeight, offsetX);
+        drawVisibleTiles(g, world, screenWidth, screenHeight, offsetX, offsetY);
 
         // draw player
-        g.drawImage(player.getImage(),
-            Math.round(player.getX()) + offsetX,
-            Math.round(player.getY()) + offsetY,
+        g.drawImage(world.getPlayerImage(),
+            playerX + offsetX,
+            Math.round(world.getPlayerY(alpha)) + offsetY,
             null);
 
-        // draw sprites
-        Iterator i = map.getSprites();
-        while (i.hasNext()) {
-            Sprite sprite = (Sprite)i.next();
-            int x = Math.round(sprite.getX()) + offsetX;
-            int y = Math.round(sprite.getY()) + offsetY;
-            g.drawImage(sprite.getImage(), x, y, null);
-
-            // wake up the creature when it's on screen
-            if (sprite instanceof Creature &&
-                x >= 0 && x < screenWidth)
+        // draw the sprites captured around the screen
+        int drawn = 0;
+        for (int i = 0; i < world.getSpriteCount(); i++) {
+            int x = Math.round(world.getSpriteX(i, alpha)) + offsetX;
+            int y = Math.round(world.getSpriteY(i, alpha)) + offsetY;
+            if (drawSprite(g, world.getSpriteImage(i), x, y,
+                screenWidth, screenHeight))
             {
-                ((Creature)sprite).wakeUp();
+                drawn++;
             }
         }
-        
-        // draw parallax foreground images
+        cullFrames++;
+        spritesDrawn += drawn;
+        spritesCulled += world.getMapSpriteCount() - drawn;
+
+        drawForegrounds(g, world, screenWidth, screenHeight, offsetX);
+    }
+
+    /**
+        Draws the black background, if needed, and the parallax
+        background layers.
+    */
+    private void drawBackgrounds(Graphics2D g, TileView map,
+        int screenWidth, int screenHeight, int offsetX)
+    {
+        if (backgrounds == null || backgrounds.length == 0 ||
+            screenHeight > backgrounds[0].getHeight(null)) {
+            g.setColor(Color.black);
+            g.fillRect(0, 0, screenWidth, screenHeight);
+        }
+
+        if (backgrounds != null)
+            applyBackgroundParallax(g, screenWidth, screenHeight, offsetX,
+                tilesToPixels(map.getWidth()));
+    }
+
+    /**
+        Draws the parallax foreground images.
+    */
+    private void drawForegrounds(Graphics2D g, TileView map,
+        int screenWidth, int screenHeight, int offsetX)
+    {
         if (foregrounds != null) {
+            int mapWidth = tilesToPixels(map.getWidth());
             for (int j = 0; j < foregrounds.length; j++)
                 applyForegroundParallax(g, j, screenWidth, screenHeight, offsetX, mapWidth);
         }
     }
+
+    /**
+        Draws the tiles on screen, skipping the rows above and
+        below it.
+    */
+    private void drawVisibleTiles(Graphics2D g, TileView map,
+        int screenWidth, int screenHeight, int offsetX, int offsetY)
+    {
+        int firstTileX = pixelsToTiles(-offsetX);
+        int lastTileX = firstTileX + pixelsToTiles(screenWidth) + 1;
+        int firstTileY = Math.max(pixelsToTiles(-offsetY), 0);
+        int lastTileY = Math.min(pixelsToTiles(screenHeight - 1 - offsetY),
+            map.getHeight() - 1);
+        if (tileCacheEnabled)
+            drawTileStrips(g, map, firstTileX, lastTileX,
+                firstTileY, lastTileY, offsetX, offsetY);
+        else
+            drawTiles(g, map, firstTileX, lastTileX,
+                firstTileY, lastTileY, offsetX, offsetY);
+        tileRowsDrawn += lastTileY - firstTileY + 1;
+        tileRowsCulled += map.getHeight() - (lastTileY - firstTileY + 1);
+    }
+
+    /**
+        Draws a Sprite image if it overlaps the screen. Returns
+        false if it was culled.
+    */
+    private boolean drawSprite(Graphics2D g, Image image, int x, int y,
+        int screenWidth, int screenHeight)
+    {
+        if (x + image.getWidth(null) > 0 && x < screenWidth &&
+            y + image.getHeight(null) > 0 && y < screenHeight)
+        {
+            g.drawImage(image, x, y, null);
+            return true;
+        }
+        return false;
+    }
 }
@@ -0,0 +1,48 @@
+package AstrozleTilegame;
+
+import java.awt.Image;
+
+/**
+    A TileView gives the tiles of a map to a TileMapDrawer, either
+    straight from the TileMap or from a WorldSnapshot of it.
+*/
+interface TileView {
+
+    /**
+        Gets the TileMap the tiles come from.
+    */
+    public TileMap getMap();
+
+    /**
+        Gets the width of the map (number of tiles across).
+    */
+    public int getWidth();
+
+    /**
+        Gets the height of the map (number of tiles down).
+    */
+    public int getHeight();
+
+    /**
+        Gets the id of the tile at the specified location, or
+        EMPTY_TILE.
+    */
+    public short getTileId(int x, int y);
+
+    /**
+        Gets the Image of the specified tile id, or null for
+        EMPTY_TILE.
+    */
+    public Image getTileImage(short id);
+
+    /**
+        Gets a number that changes every time a tile is set.
+    */
+    public int getTileVersion();
+
+    /**
+        Gets the tile version of the last time a tile in the
+        specified column was set, or 0 if none was.
+    */
+    public int getColumnVersion(int x);
+}
@@ -0,0 +1,230 @@
+package AstrozleTilegame;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import AstrozleGraphics.Sprite;
+import AstrozleTest.RenderFrame;
+
+/**
+    A WorldSnapshot is a copy of what the TileMapDrawer needs to
+    draw a frame: the chunks around the camera, the start and end
+    position and the current animation frame of the player and of
+    each Sprite near the screen, and the numbers on the HUD.
+
+    <p>The update thread fills a snapshot with capture() after each
+    tick, and the render thread draws it. A snapshot is never changed
+    while it's drawn (see TripleBuffer), so drawing needs no locks.
+*/
+public class WorldSnapshot implements RenderFrame, TileView {
+    private static final int TILE_SIZE = TileMapDrawer.tilesToPixels(1);
+
+    private final TileMapDrawer drawer;
+    private final ArrayList<Sprite> nearSprites = new ArrayList<>();
+
+    private TileMap map;
+    private MapChunk[] chunks = new MapChunk[0];
+    private Image[] palette;
+    private int tileVersion;
+    private int[] columnVersions = new int[0];
+    private int screenWidth;
+    private int screenHeight;
+    private int backgroundResets;
+
+    private Image playerImage;
+    private float playerStartX;
+    private float playerStartY;
+    private float playerEndX;
+    private float playerEndY;
+
+    private int spriteCount;
+    private int mapSpriteCount;
+    private Image[] spriteImages = new Image[16];
+    private float[] spriteStartX = new float[16];
+    private float[] spriteStartY = new float[16];
+    private float[] spriteEndX = new float[16];
+    private float[] spriteEndY = new float[16];
+
+    private int coins;
+    private int lives;
+    private int home;
+
+    /**
+        Creates a new, empty WorldSnapshot drawn with the specified
+        TileMapDrawer.
+    */
+    public WorldSnapshot(TileMapDrawer drawer) {
+        this.drawer = drawer;
+    }
+
+    /**
+        Copies the state of the map after a tick. Called on the
+        update thread.
+    */
+    void capture(TileMap map, int screenWidth, int screenHeight,
+        int backgroundResets)
+    {
+        this.map = map;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.backgroundResets = backgroundResets;
+
+        Sprite player = map.getPlayer();
+        playerImage = player.getImage();
+        playerStartX = player.getInterpolatedX(0);
+        playerStartY = player.getInterpolatedY(0);
+        playerEndX = player.getX();
+        playerEndY = player.getY();
+
+        // the tiles of the strips around the screen
+        int offsetX = TileMapDrawer.getOffsetX(map,
+            Math.round(playerEndX), screenWidth);
+        int firstTileX = TileMapDrawer.pixelsToTiles(-offsetX) -
+            TileMapDrawer.STRIP_TILES - 1;
+        int lastTileX = TileMapDrawer.pixelsToTiles(-offsetX + screenWidth) +
+            TileMapDrawer.STRIP_TILES + 1;
+        if (chunks.length != map.getChunkCount())
+            chunks = new MapChunk[map.getChunkCount()];
+        map.shareChunks(firstTileX, lastTileX, chunks);
+        palette = map.getPalette();
+        tileVersion = map.getTileVersion();
+        if (columnVersions.length != map.getWidth())
+            columnVersions = new int[map.getWidth()];
+        for (int x = Math.max(firstTileX, 0);
+            x <= Math.min(lastTileX, map.getWidth() - 1); x++)
+        {
+            columnVersions[x] = map.getColumnVersion(x);
+        }
+
+        // the sprites that can be on screen during the tick
+        nearSprites.clear();
+        map.getSpritesNear(-offsetX - 2 * TILE_SIZE, 0,
+            screenWidth + 4 * TILE_SIZE,
+            TileMapDrawer.tilesToPixels(map.getHeight()), nearSprites);
+        spriteCount = 0;
+        for (int i = 0; i < nearSprites.size(); i++)
+            addSprite(nearSprites.get(i));
+        nearSprites.clear();
+        mapSpriteCount = map.getSpriteCount();
+    }
+
+    /**
+        Copies the numbers shown on the HUD.
+    */
+    void captureHud(int coins, int lives, int home) {
+        this.coins = coins;
+        this.lives = lives;
+        this.home = home;
+    }
+
+    private void addSprite(Sprite sprite) {
+        if (spriteCount == spriteImages.length) {
+            int length = spriteCount * 2;
+            spriteImages = Arrays.copyOf(spriteImages, length);
+            spriteStartX = Arrays.copyOf(spriteStartX, length);
+            spriteStartY = Arrays.copyOf(spriteStartY, length);
+            spriteEndX = Arrays.copyOf(spriteEndX, length);
+            spriteEndY = Arrays.copyOf(spriteEndY, length);
+        }
+        spriteImages[spriteCount] = sprite.getImage();
+        spriteStartX[spriteCount] = sprite.getInterpolatedX(0);
+        spriteStartY[spriteCount] = sprite.getInterpolatedY(0);
+        spriteEndX[spriteCount] = sprite.getX();
+        spriteEndY[spriteCount] = sprite.getY();
+        spriteCount++;
+    }
+
+    /**
+        Draws this snapshot and the HUD. Called on the render
+        thread.
+    */
+    public void draw(Graphics2D g, float alpha) {
+        drawer.draw(g, this, alpha);
+        GameEngine.drawHud(g, coins, lives, home);
+    }
+
+    public TileMap getMap() {
+        return map;
+    }
+
+    public int getWidth() {
+        return map.getWidth();
+    }
+
+    public int getHeight() {
+        return map.getHeight();
+    }
+
+    public short getTileId(int x, int y) {
+        if (x < 0 || x >= getWidth() || y < 0 || y >= getHeight())
+            return TileMap.EMPTY_TILE;
+        MapChunk chunk = chunks[x >> TileMap.CHUNK_BITS];
+        if (chunk == null)
+            return TileMap.EMPTY_TILE;
+        return chunk.getTileId(x & (TileMap.CHUNK_WIDTH - 1), y);
+    }
+
+    public Image getTileImage(short id) {
+        return (id == TileMap.EMPTY_TILE) ? null : palette[id - 1];
+    }
+
+    public int getTileVersion() {
+        return tileVersion;
+    }
+
+    public int getColumnVersion(int x) {
+        return (x < 0 || x >= getWidth()) ? 0 : columnVersions[x];
+    }
+
+    int getScreenWidth() {
+        return screenWidth;
+    }
+
+    int getScreenHeight() {
+        return screenHeight;
+    }
+
+    int getBackgroundResets() {
+        return backgroundResets;
+    }
+
+    Image getPlayerImage() {
+        return playerImage;
+    }
+
+    float getPlayerX(float alpha) {
+        return playerStartX + (playerEndX - playerStartX) * alpha;
+    }
+
+    float getPlayerY(float alpha) {
+        return playerStartY + (playerEndY - playerStartY) * alpha;
+    }
+
+    /**
+        Gets the number of Sprites captured near the screen.
+    */
+    int getSpriteCount() {
+        return spriteCount;
+    }
+
+    /**
+        Gets the number of Sprites in the whole map.
+    */
+    int getMapSpriteCount() {
+        return mapSpriteCount;
+    }
+
+    Image getSpriteImage(int i) {
+        return spriteImages[i];
+    }
+
+    float getSpriteX(int i, float alpha) {
+        return spriteStartX[i] + (spriteEndX[i] - spriteStartX[i]) * alpha;
+    }
+
+    float getSpriteY(int i, float alpha) {
+        return spriteStartY[i] + (spriteEndY[i] - spriteStartY[i]) * alpha;
+    }
+}
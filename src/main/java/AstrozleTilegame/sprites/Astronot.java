@@ -2,8 +2,7 @@ package AstrozleTilegame.sprites;
 
 import AstrozleAudio.AudioManager;
 import AstrozleGraphics.Animation;
-
-import java.lang.reflect.Constructor;
+import AstrozleGraphics.EntityStore;
 
 /**
     The Player.
@@ -81,6 +80,15 @@ public class Astronot extends Creature {
         // do nothing
     }
 
+    /**
+        The player writes its velocity fields directly, so it can't
+        be kept in an EntityStore.
+    */
+    protected void bind(EntityStore store, int id) {
+        throw new UnsupportedOperationException(
+            "The player can't be added to an EntityStore");
+    }
+
     /**
         Makes the player jump if the player is on the ground or
         if forceJump is true.
@@ -168,25 +176,6 @@ public class Astronot extends Creature {
         }
     }
     
-    @Override
-    public Object clone() {
-        // use reflection to create the correct subclass
-        Constructor constructor = getClass().getConstructors()[0];
-        try {
-            return constructor.newInstance(new Object[] {
-                (Animation[])idleAnimations.clone(),
-                (Animation[])idleRageAnimations.clone(),
-                (Animation[])walkingAnimations.clone(),
-                (Animation[])walkingRageAnimations.clone()
-            });
-        }
-        catch (Exception ex) {
-            // should never happen
-            ex.printStackTrace();
-            return null;
-        }
-    }
-    
     private void setActiveAnim(Animation[] anims, Animation target) {
         if (anims == null || anims.length < 4)
             return;
@@ -1,15 +1,27 @@
 package AstrozleTilegame.sprites;
 
-import java.lang.reflect.Constructor;
-
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import AstrozleGraphics.Animation;
+import AstrozleGraphics.EntityStore;
 import AstrozleGraphics.Sprite;
 
 /**
     A Creature is a Sprite that is affected by gravity and can
     die. It has four Animations: moving left, moving right,
     dying on the left, and dying on the right.
+
+    <p>In an EntityStore, the state and the time spent in it are
+    kept in the store too. The state and stateTime fields are only
+    used while the Creature isn't in a store (like the player). The
+    flags of the entity tell CreatureUpdater what it can do without
+    calling the Creature: FLAG_DEFAULT_MOVES if the class doesn't
+    override how it moves, collides and animates, FLAG_FLYING if it
+    is flying, and FLAG_LEFT and FLAG_RIGHT if its current Animation
+    is the left or right one.
 */
 public abstract class Creature extends Sprite {
     /**
@@ -21,6 +33,35 @@ public abstract class Creature extends Sprite {
     public static final int STATE_DYING = 1;
     public static final int STATE_DEAD = 2;
 
+    // entity flags, above the ones of EntityStore
+    public static final int FLAG_DEFAULT_MOVES = 1 << 8;
+    public static final int FLAG_FLYING = 1 << 9;
+    public static final int FLAG_LEFT = 1 << 10;
+    public static final int FLAG_RIGHT = 1 << 11;
+
+    // the methods CreatureUpdater does without, for FLAG_DEFAULT_MOVES
+    private static final Set<String> MOVE_METHODS = new HashSet<>(
+        Arrays.asList("update", "collideHorizontal", "collideVertical",
+            "getState", "setState", "getX", "getY", "setX", "setY",
+            "getVelocityX", "getVelocityY", "setVelocityX",
+            "setVelocityY", "getWidth", "getHeight", "setAnimation",
+            "updateAnimation"));
+
+    private static final ClassValue<Boolean> DEFAULT_MOVES =
+        new ClassValue<Boolean>() {
+            protected Boolean computeValue(Class<?> type) {
+                for (Class<?> c = type; c != Creature.class;
+                    c = c.getSuperclass())
+                {
+                    for (Method method : c.getDeclaredMethods()) {
+                        if (MOVE_METHODS.contains(method.getName()))
+                            return false;
+                    }
+                }
+                return true;
+            }
+        };
+
     protected Animation left;
     protected Animation right;
     protected Animation deadLeft;
@@ -54,24 +95,6 @@ public abstract class Creature extends Sprite {
         state = STATE_NORMAL;
     }
 
-    public Object clone() {
-        // use reflection to create the correct subclass
-        Constructor constructor = getClass().getConstructors()[0];
-        try {
-            return constructor.newInstance(new Object[] {
-                (Animation)left.clone(),
-                (Animation)right.clone(),
-                (Animation)deadLeft.clone(),
-                (Animation)deadRight.clone()
-            });
-        }
-        catch (Exception ex) {
-            // should never happen
-            ex.printStackTrace();
-            return null;
-        }
-    }
-
     /**
         Gets the maximum speed of this Creature.
     */
@@ -80,8 +103,9 @@ public abstract class Creature extends Sprite {
     }
 
     /**
-        Wakes up the creature when the Creature first appears
-        on screen. Normally, the creature starts moving left.
+        Wakes up the creature when the Creature enters the active
+        part of the map around the screen. The first time, the
+        creature normally starts moving left.
     */
     public void wakeUp() {
         if (getState() == STATE_NORMAL && getVelocityX() == 0) {
@@ -94,7 +118,8 @@ public abstract class Creature extends Sprite {
         STATE_NORMAL, STATE_DYING, or STATE_DEAD.
     */
     public int getState() {
-        return state;
+        EntityStore store = getStore();
+        return (store == null) ? state : store.getState(getId());
     }
 
     /**
@@ -102,9 +127,17 @@ public abstract class Creature extends Sprite {
         STATE_DYING, or STATE_DEAD.
     */
     public void setState(int state) {
-        if (this.state != state) {
-            this.state = state;
-            stateTime = 0;
+        if (getState() != state) {
+            EntityStore store = getStore();
+            if (store == null) {
+                this.state = state;
+                stateTime = 0;
+            }
+            else {
+                store.setState(getId(), state);
+                store.setStateTime(getId(), 0);
+                updateFlags();
+            }
             if (state == STATE_DYING) {
                 setVelocityX(0);
                 setVelocityY(0);
@@ -116,11 +149,13 @@ public abstract class Creature extends Sprite {
         Checks if this creature is alive.
     */
     public boolean isAlive() {
-        return (state == STATE_NORMAL);
+        return (getState() == STATE_NORMAL);
     }
 
     /**
-        Checks if this creature is flying.
+        Checks if this creature is flying. In an EntityStore, this is
+        only asked when the Creature is added and when its state
+        changes, so it must depend on the state only.
     */
     public boolean isFlying() {
         return false;
@@ -154,28 +189,67 @@ public abstract class Creature extends Sprite {
         else if (getVelocityX() > 0) {
             newAnim = right;
         }
-        if (state == STATE_DYING && newAnim == left) {
+        int currState = getState();
+        if (currState == STATE_DYING && newAnim == left) {
             newAnim = deadLeft;
         }
-        else if (state == STATE_DYING && newAnim == right) {
+        else if (currState == STATE_DYING && newAnim == right) {
             newAnim = deadRight;
         }
 
         // update the Animation
         if (anim != newAnim) {
-            anim = newAnim;
-            anim.start();
+            setAnimation(newAnim);
+            if (getStore() != null)
+                updateFlags();
         }
         else {
-            anim.update(elapsedTime);
+            updateAnimation(elapsedTime);
         }
 
         // update to "dead" state
-        stateTime += elapsedTime;
-        if (state == STATE_DYING && stateTime >= DIE_TIME) {
+        long time = addStateTime(elapsedTime);
+        if (currState == STATE_DYING && time >= DIE_TIME) {
             setState(STATE_DEAD);
         }
     }
+
+    private long addStateTime(long elapsedTime) {
+        EntityStore store = getStore();
+        if (store == null) {
+            stateTime += elapsedTime;
+            return stateTime;
+        }
+        long time = store.getStateTime(getId()) + elapsedTime;
+        store.setStateTime(getId(), time);
+        return time;
+    }
+
+    protected void bind(EntityStore store, int id) {
+        super.bind(store, id);
+        store.setState(id, state);
+        store.setStateTime(id, stateTime);
+        updateFlags();
+    }
+
+    private void updateFlags() {
+        int flags = 0;
+        if (DEFAULT_MOVES.get(getClass()))
+            flags |= FLAG_DEFAULT_MOVES;
+        if (isFlying())
+            flags |= FLAG_FLYING;
+        if (anim == left)
+            flags |= FLAG_LEFT;
+        if (anim == right)
+            flags |= FLAG_RIGHT;
+        getStore().setFlags(getId(), flags);
+    }
+
+    protected void unbind() {
+        state = getStore().getState(getId());
+        stateTime = getStore().getStateTime(getId());
+        super.unbind();
+    }
     
     public boolean isKillable() {
         return killable;
@@ -1,8 +1,5 @@
 package AstrozleTilegame.sprites;
 
-import java.lang.reflect.Constructor;
-
-
 import AstrozleGraphics.Animation;
 import AstrozleGraphics.Sprite;
 
@@ -15,20 +12,6 @@ public abstract class PowerUp extends Sprite {
         super(anim);
     }
 
-    public Object clone() {
-        // use reflection to create the correct subclass
-        Constructor constructor = getClass().getConstructors()[0];
-        try {
-            return constructor.newInstance(
-                new Object[] {(Animation)anim.clone()});
-        }
-        catch (Exception ex) {
-            // should never happen
-            ex.printStackTrace();
-            return null;
-        }
-    }
-
     /**
         A Coin PowerUp. Gives the player coins.
     */
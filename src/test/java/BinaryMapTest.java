@@ -0,0 +1,78 @@
+import AstrozleTilegame.BinaryMapSource;
+import AstrozleTilegame.MapChunk;
+import AstrozleTilegame.MapConverter;
+import AstrozleTilegame.TextMapSource;
+import AstrozleTilegame.TileMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import junit.framework.*;
+
+public class BinaryMapTest extends TestCase {
+    public void testConvertedMapMatchesTextMap() throws Exception {
+        File out = File.createTempFile("map1", ".azm");
+        out.deleteOnExit();
+
+        TextMapSource text = new TextMapSource(new File("maps/map1.txt"), 10);
+        MapConverter.convert(new TextMapSource(new File("maps/map1.txt"), 26), out);
+        BinaryMapSource binary = new BinaryMapSource(out, 10);
+
+        assertTrue("Map size differs", text.getWidth() == binary.getWidth() &&
+            text.getHeight() == binary.getHeight());
+
+        int chunkCount = (text.getWidth() + TileMap.CHUNK_WIDTH - 1) / TileMap.CHUNK_WIDTH;
+        for (int i = 0; i < chunkCount; i++) {
+            MapChunk expected = text.loadChunk(i);
+            MapChunk actual = binary.loadChunk(i);
+            for (int y = 0; y < text.getHeight(); y++) {
+                for (int x = 0; x < TileMap.CHUNK_WIDTH; x++) {
+                    assertTrue("Tile differs at " + x + "," + y,
+                        expected.getTileId(x, y) == actual.getTileId(x, y));
+                }
+            }
+
+            assertTrue("Spawn count differs in chunk " + i,
+                expected.getSpawnCount() == actual.getSpawnCount());
+            for (int j = 0; j < expected.getSpawnCount(); j++) {
+                assertTrue("Spawn " + j + " differs in chunk " + i,
+                    expected.getSpawnGlyph(j) == actual.getSpawnGlyph(j) &&
+                    expected.getSpawnX(j) == actual.getSpawnX(j) &&
+                    expected.getSpawnY(j) == actual.getSpawnY(j));
+            }
+        }
+    }
+
+    public void testTruncatedMapFailsWithIOException() throws Exception {
+        File full = File.createTempFile("map1", ".azm");
+        full.deleteOnExit();
+        MapConverter.convert(new TextMapSource(new File("maps/map1.txt"), 26), full);
+        byte[] bytes = Files.readAllBytes(full.toPath());
+
+        // every cut either fails to open or fails per chunk, with an
+        // IOException the TileMap can fall back from
+        File cut = File.createTempFile("cut", ".azm");
+        cut.deleteOnExit();
+        for (int length = 0; length < bytes.length; length += 7) {
+            Files.write(cut.toPath(), Arrays.copyOf(bytes, length));
+            BinaryMapSource binary;
+            try {
+                binary = new BinaryMapSource(cut, 10);
+            }
+            catch (IOException ex) {
+                continue;
+            }
+            int chunkCount = (binary.getWidth() + TileMap.CHUNK_WIDTH - 1) /
+                TileMap.CHUNK_WIDTH;
+            for (int i = 0; i < chunkCount; i++) {
+                try {
+                    binary.loadChunk(i);
+                }
+                catch (IOException ex) {
+                    // expected past the cut
+                }
+            }
+        }
+    }
+}
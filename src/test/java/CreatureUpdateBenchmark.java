@@ -0,0 +1,119 @@
+import AstrozleGraphics.Animation;
+import AstrozleGraphics.Sprite;
+import AstrozleTilegame.CreatureUpdater;
+import AstrozleTilegame.TileMap;
+import AstrozleTilegame.sprites.Alien;
+import AstrozleTilegame.sprites.Creature;
+import AstrozleTilegame.sprites.Pesawat;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+    Measures the CreatureUpdater on a long map full of creatures,
+    from 1 thread up to one per core, and checks that every thread
+    count ends with the same creatures, bit for bit.
+
+    <p>Not a unit test. Run with:
+    mvn test-compile
+    java -cp target/classes:target/test-classes CreatureUpdateBenchmark [maxThreads]
+*/
+public class CreatureUpdateBenchmark {
+    private static final int CREATURES = 20000;
+    private static final int MAP_WIDTH = 4096;
+    private static final int MAP_HEIGHT = 15;
+    private static final int TICKS = 200;
+    private static final long TICK_MILLIS = 8;
+
+    public static void main(String[] args) {
+        int cores = (args.length > 0) ? Integer.parseInt(args[0]) :
+            Runtime.getRuntime().availableProcessors();
+        float[] expected = null;
+        double serialTime = 0;
+
+        System.out.printf("%d creatures, %d ticks%n", CREATURES, TICKS);
+        for (int threads = 1; threads <= cores; threads++) {
+            TileMap map = createMap();
+            ArrayList<Sprite> creatures = createCreatures(map);
+            CreatureUpdater updater = new CreatureUpdater(threads);
+
+            // warm up, then measure the rest
+            for (int i = 0; i < TICKS / 4; i++)
+                updater.update(map, creatures, TICK_MILLIS);
+            long start = System.nanoTime();
+            for (int i = TICKS / 4; i < TICKS; i++)
+                updater.update(map, creatures, TICK_MILLIS);
+            double time = (System.nanoTime() - start) / 1e6 / (TICKS - TICKS / 4);
+
+            float[] result = getState(creatures);
+            if (expected == null) {
+                expected = result;
+                serialTime = time;
+            }
+            boolean same = true;
+            for (int i = 0; i < result.length; i++) {
+                if (Float.floatToIntBits(result[i]) !=
+                    Float.floatToIntBits(expected[i]))
+                {
+                    same = false;
+                }
+            }
+            System.out.printf("%2d threads: %8.3f ms/tick  speedup %5.2fx  %s%n",
+                threads, time, serialTime / time,
+                same ? "same" : "DIFFERENT");
+        }
+    }
+
+    private static TileMap createMap() {
+        Image tile = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        TileMap map = new TileMap(MAP_WIDTH, MAP_HEIGHT);
+        Random random = new Random(1);
+        for (int x = 0; x < MAP_WIDTH; x++) {
+            map.setTile(x, MAP_HEIGHT - 1, tile);
+            // walls and ledges for the creatures to bounce off
+            if (random.nextInt(8) == 0)
+                map.setTile(x, MAP_HEIGHT - 2, tile);
+            if (random.nextInt(16) == 0)
+                map.setTile(x, random.nextInt(MAP_HEIGHT - 4), tile);
+        }
+        return map;
+    }
+
+    private static ArrayList<Sprite> createCreatures(TileMap map) {
+        Animation anim = new Animation();
+        for (int i = 0; i < 4; i++)
+            anim.addFrame(new BufferedImage(50, 40, BufferedImage.TYPE_INT_ARGB), 100);
+
+        Random random = new Random(2);
+        ArrayList<Sprite> creatures = new ArrayList<>();
+        for (int i = 0; i < CREATURES; i++) {
+            Creature creature = (i % 3 == 0) ?
+                new Pesawat(copy(anim), copy(anim), copy(anim), copy(anim)) :
+                new Alien(copy(anim), copy(anim), copy(anim), copy(anim));
+            creature.setX(random.nextInt((MAP_WIDTH - 2) * 64) + 64);
+            creature.setY(random.nextInt(64 * 8));
+            creature.wakeUp();
+            map.addSprite(creature);
+            creatures.add(creature);
+        }
+        return creatures;
+    }
+
+    private static Animation copy(Animation anim) {
+        return (Animation)anim.clone();
+    }
+
+    private static float[] getState(ArrayList<Sprite> creatures) {
+        float[] state = new float[creatures.size() * 4];
+        for (int i = 0; i < creatures.size(); i++) {
+            Sprite sprite = creatures.get(i);
+            state[i * 4] = sprite.getX();
+            state[i * 4 + 1] = sprite.getY();
+            state[i * 4 + 2] = sprite.getVelocityX();
+            state[i * 4 + 3] = sprite.getVelocityY();
+        }
+        return state;
+    }
+}
@@ -0,0 +1,157 @@
+import AstrozleGraphics.Animation;
+import AstrozleGraphics.Sprite;
+import AstrozleTilegame.CreatureUpdater;
+import AstrozleTilegame.TileMap;
+import AstrozleTilegame.sprites.Alien;
+import AstrozleTilegame.sprites.Creature;
+import AstrozleTilegame.sprites.Pesawat;
+import AstrozleTilegame.sprites.PowerUp;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+    Compares updating 100k Sprites kept as separate objects with
+    updating the same Sprites kept in the EntityStore of a TileMap:
+    saving positions, a pass that reads the bounds of every Sprite
+    (like the active window and culling checks), and the full
+    creature update with tile collisions. Checks that both end with
+    the same Sprites, bit for bit, and if a store tick (saving
+    positions and the update) fits in the TICK_BUDGET.
+
+    <p>Not a unit test. Run with:
+    mvn test-compile
+    java -cp target/classes:target/test-classes EntityStoreBenchmark
+*/
+public class EntityStoreBenchmark {
+    private static final int ENTITIES = 100000;
+    private static final int MAP_WIDTH = 16384;
+    private static final int MAP_HEIGHT = 15;
+    private static final int TICKS = 400;
+    private static final long TICK_MILLIS = 8;
+    private static final double TICK_BUDGET = 4;
+
+    public static void main(String[] args) {
+        System.out.printf("%d entities, %d ticks%n", ENTITIES, TICKS);
+        float[] objects = run("objects", false);
+        float[] store = run("store", true);
+        boolean same = true;
+        for (int i = 0; i < objects.length; i++) {
+            if (Float.floatToIntBits(objects[i]) !=
+                Float.floatToIntBits(store[i]))
+            {
+                same = false;
+            }
+        }
+        System.out.println(same ? "same" : "DIFFERENT");
+    }
+
+    private static float[] run(String name, boolean inStore) {
+        TileMap map = createMap();
+        ArrayList<Sprite> sprites = createSprites();
+        if (inStore) {
+            for (Sprite sprite : sprites)
+                map.addSprite(sprite);
+        }
+        CreatureUpdater updater = new CreatureUpdater(1);
+
+        long saveTime = 0;
+        long boundsTime = 0;
+        long updateTime = 0;
+        int checksum = 0;
+        for (int tick = 0; tick < TICKS; tick++) {
+            // the first quarter warms up
+            if (tick == TICKS / 4) {
+                saveTime = 0;
+                boundsTime = 0;
+                updateTime = 0;
+            }
+
+            long start = System.nanoTime();
+            if (inStore)
+                map.savePositions();
+            else {
+                for (int i = 0; i < sprites.size(); i++)
+                    sprites.get(i).savePosition();
+            }
+            long saved = System.nanoTime();
+            for (int i = 0; i < sprites.size(); i++) {
+                Sprite sprite = sprites.get(i);
+                if (sprite.getX() + sprite.getWidth() > 0)
+                    checksum += sprite.getHeight();
+            }
+            long bounds = System.nanoTime();
+            updater.update(map, sprites, TICK_MILLIS);
+            long end = System.nanoTime();
+
+            saveTime += saved - start;
+            boundsTime += bounds - saved;
+            updateTime += end - bounds;
+        }
+        int measured = TICKS - TICKS / 4;
+        System.out.printf("%-8s save %7.3f  bounds %7.3f  update %8.3f ms/tick  (%d)%n",
+            name, saveTime / 1e6 / measured, boundsTime / 1e6 / measured,
+            updateTime / 1e6 / measured, checksum);
+        if (inStore) {
+            double tick = (saveTime + updateTime) / 1e6 / measured;
+            System.out.printf("tick %.3f ms, %s the %.0f ms budget%n", tick,
+                (tick <= TICK_BUDGET) ? "within" : "OVER", TICK_BUDGET);
+        }
+        return getState(sprites);
+    }
+
+    private static TileMap createMap() {
+        Image tile = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        TileMap map = new TileMap(MAP_WIDTH, MAP_HEIGHT);
+        Random random = new Random(1);
+        for (int x = 0; x < MAP_WIDTH; x++) {
+            map.setTile(x, MAP_HEIGHT - 1, tile);
+            if (random.nextInt(8) == 0)
+                map.setTile(x, MAP_HEIGHT - 2, tile);
+        }
+        return map;
+    }
+
+    private static ArrayList<Sprite> createSprites() {
+        Animation anim = new Animation();
+        for (int i = 0; i < 4; i++)
+            anim.addFrame(new BufferedImage(50, 40 + i, BufferedImage.TYPE_INT_ARGB), 100);
+
+        Random random = new Random(2);
+        ArrayList<Sprite> sprites = new ArrayList<>();
+        for (int i = 0; i < ENTITIES; i++) {
+            Sprite sprite;
+            if (i % 4 == 0)
+                sprite = new PowerUp.Coin(copy(anim));
+            else if (i % 4 == 1)
+                sprite = new Pesawat(copy(anim), copy(anim), copy(anim), copy(anim));
+            else
+                sprite = new Alien(copy(anim), copy(anim), copy(anim), copy(anim));
+            sprite.setX(random.nextInt((MAP_WIDTH - 2) * 64) + 64);
+            sprite.setY(random.nextInt(64 * 8));
+            if (sprite instanceof Creature)
+                ((Creature)sprite).wakeUp();
+            sprites.add(sprite);
+        }
+        return sprites;
+    }
+
+    private static Animation copy(Animation anim) {
+        return (Animation)anim.clone();
+    }
+
+    private static float[] getState(ArrayList<Sprite> sprites) {
+        float[] state = new float[sprites.size() * 5];
+        for (int i = 0; i < sprites.size(); i++) {
+            Sprite sprite = sprites.get(i);
+            state[i * 5] = sprite.getX();
+            state[i * 5 + 1] = sprite.getY();
+            state[i * 5 + 2] = sprite.getVelocityX();
+            state[i * 5 + 3] = sprite.getVelocityY();
+            state[i * 5 + 4] = sprite.getHeight();
+        }
+        return state;
+    }
+}
@@ -0,0 +1,275 @@
+import AstrozleGraphics.Animation;
+import AstrozleGraphics.EntityStore;
+import AstrozleGraphics.Sprite;
+import AstrozleTilegame.CreatureUpdater;
+import AstrozleTilegame.TileMap;
+import AstrozleTilegame.sprites.Alien;
+import AstrozleTilegame.sprites.Astronot;
+import AstrozleTilegame.sprites.Creature;
+import AstrozleTilegame.sprites.Pesawat;
+import AstrozleTilegame.sprites.PowerUp;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import junit.framework.*;
+
+public class EntityStoreTest extends TestCase {
+    public void testSwapRemoveKeepsHandles() throws Exception {
+        EntityStore store = new EntityStore();
+        Sprite[] sprites = new Sprite[5];
+        int[] handles = new int[5];
+        for (int i = 0; i < sprites.length; i++) {
+            sprites[i] = SpriteFixtures.createSprite(i * 10, i);
+            store.add(sprites[i]);
+            handles[i] = sprites[i].getHandle();
+        }
+
+        store.remove(sprites[1]);
+        assertEquals(4, store.size());
+        assertTrue("Last entity not moved into the hole", store.get(1) == sprites[4]);
+        assertEquals(40f, sprites[4].getX());
+        assertEquals(10f, sprites[1].getX());
+        assertNull("Removed sprite still in the store", sprites[1].getStore());
+        for (int i = 0; i < sprites.length; i++) {
+            if (i != 1)
+                assertTrue("Handle changed", store.lookup(handles[i]) == sprites[i]);
+        }
+
+        // the freed slot is reused, but the old handle stays dead
+        Sprite sprite = SpriteFixtures.createSprite(0, 0);
+        store.add(sprite);
+        assertTrue(sprite.getHandle() != handles[1]);
+        assertNull("Stale handle found a sprite", store.lookup(handles[1]));
+        assertTrue(store.lookup(sprite.getHandle()) == sprite);
+    }
+
+    public void testDespawnIsDeferred() throws Exception {
+        TileMap map = new TileMap(100, 12);
+        Sprite coin = SpriteFixtures.createSprite(64 * 10, 64);
+        Sprite other = SpriteFixtures.createSprite(64 * 20, 64);
+        map.addSprite(coin);
+        map.addSprite(other);
+
+        map.despawn(coin);
+        map.despawn(coin);
+        ArrayList<Sprite> result = new ArrayList<>();
+        map.getSpritesNear(64 * 10, 64, 64, 64, result);
+        assertTrue("Despawned sprite still found", result.isEmpty());
+        assertEquals("Despawned before the end of the tick", 2, map.getSpriteCount());
+
+        map.applyDespawns();
+        assertEquals(1, map.getSpriteCount());
+        assertNull(coin.getStore());
+        assertTrue(other.getStore() != null);
+    }
+
+    public void testIteratorRemove() throws Exception {
+        TileMap map = new TileMap(100, 12);
+        for (int i = 0; i < 10; i++)
+            map.addSprite(SpriteFixtures.createSprite(i * 64, 0));
+
+        int visited = 0;
+        for (Iterator<Sprite> i = map.getSprites(); i.hasNext(); ) {
+            Sprite sprite = i.next();
+            visited++;
+            if (sprite.getX() % 128 == 0)
+                i.remove();
+        }
+        assertEquals(10, visited);
+        assertEquals(5, map.getSpriteCount());
+    }
+
+    public void testBindRoundTrip() throws Exception {
+        Sprite sprite = SpriteFixtures.createSprite(12.5f, 7);
+        sprite.setVelocityX(0.25f);
+        sprite.setVelocityY(-1);
+        sprite.savePosition();
+        sprite.setX(20);
+
+        EntityStore store = new EntityStore();
+        store.add(sprite);
+        assertEquals(20f, sprite.getX());
+        assertEquals(12.5f, sprite.getInterpolatedX(0));
+        assertEquals(0.25f, sprite.getVelocityX());
+        assertEquals(-1f, sprite.getVelocityY());
+
+        // changes made in the store stay after removing it
+        sprite.setY(30);
+        sprite.setVelocityX(-0.5f);
+        store.remove(sprite);
+        assertNull(sprite.getStore());
+        assertEquals(20f, sprite.getX());
+        assertEquals(30f, sprite.getY());
+        assertEquals(-0.5f, sprite.getVelocityX());
+        assertEquals(-1f, sprite.getVelocityY());
+    }
+
+    public void testAnimationMatchesUnbound() throws Exception {
+        Sprite bound = new Sprite(createAnimation());
+        Sprite unbound = new Sprite(createAnimation());
+        EntityStore store = new EntityStore();
+        store.add(bound);
+
+        // steps that end inside, on, and past the end of a cycle
+        long[] steps = {10, 90, 150, 49, 1, 300, 0, 601, 1000, 3};
+        for (int i = 0; i < steps.length; i++) {
+            bound.update(steps[i]);
+            unbound.update(steps[i]);
+            // each frame has its own width
+            assertEquals("Frame differs after step " + i,
+                unbound.getImage().getWidth(null), bound.getImage().getWidth(null));
+            assertEquals("Bounds differ after step " + i,
+                unbound.getWidth(), bound.getWidth());
+        }
+
+        // the cursor is copied back on remove
+        store.remove(bound);
+        bound.update(70);
+        unbound.update(70);
+        assertEquals(unbound.getWidth(), bound.getWidth());
+    }
+
+    public void testSingleFrameAnimation() throws Exception {
+        Sprite sprite = SpriteFixtures.createSprite(0, 0);
+        Image image = sprite.getImage();
+        EntityStore store = new EntityStore();
+        store.add(sprite);
+        sprite.update(1000000);
+        assertTrue(sprite.getImage() == image);
+        assertEquals(32, sprite.getWidth());
+    }
+
+    public void testCreatureStateInStore() throws Exception {
+        Creature creature = new Alien(createAnimation(), createAnimation(),
+            createAnimation(), createAnimation());
+        EntityStore store = new EntityStore();
+        store.add(creature);
+
+        creature.setVelocityX(0.1f);
+        creature.setState(Creature.STATE_DYING);
+        assertEquals(Creature.STATE_DYING, store.getState(creature.getId()));
+        assertFalse(creature.isAlive());
+        assertEquals("Dying creature still moving", 0f, creature.getVelocityX());
+
+        creature.update(600);
+        assertEquals(600, store.getStateTime(creature.getId()));
+        store.remove(creature);
+        assertEquals("State lost on remove", Creature.STATE_DYING, creature.getState());
+        store.add(creature);
+        creature.update(400);
+        assertEquals("State time lost on remove",
+            Creature.STATE_DEAD, creature.getState());
+    }
+
+    public void testPlayerCantBeStored() throws Exception {
+        Animation[] anims = {createAnimation(), createAnimation(),
+            createAnimation(), createAnimation()};
+        Astronot player = new Astronot(anims, anims, anims, anims);
+        EntityStore store = new EntityStore();
+        try {
+            store.add(player);
+            fail("Player added to a store");
+        }
+        catch (UnsupportedOperationException ex) {
+            // expected
+        }
+        assertEquals("Refused sprite left in the store", 0, store.size());
+        assertNull(player.getStore());
+    }
+
+    public void testUpdaterMatchesObjects() throws Exception {
+        TileMap objectMap = createWalledMap();
+        TileMap storeMap = createWalledMap();
+        ArrayList<Sprite> objects = createMovers();
+        ArrayList<Sprite> stored = createMovers();
+        for (Sprite sprite : stored)
+            storeMap.addSprite(sprite);
+
+        CreatureUpdater updater = new CreatureUpdater(1);
+        for (int tick = 0; tick < 400; tick++) {
+            if (tick == 200) {
+                // dying creatures leave the fast path
+                ((Creature)objects.get(1)).setState(Creature.STATE_DYING);
+                ((Creature)stored.get(1)).setState(Creature.STATE_DYING);
+            }
+            updater.update(objectMap, objects, 16);
+            updater.update(storeMap, stored, 16);
+            for (int i = 0; i < objects.size(); i++)
+                assertSameState("Sprite " + i + ", tick " + tick, objects.get(i), stored.get(i));
+        }
+        assertEquals("Override not called", 0f, stored.get(4).getVelocityX());
+    }
+
+    private void assertSameState(String message, Sprite expected, Sprite actual) {
+        assertEquals(message, expected.getX(), actual.getX());
+        assertEquals(message, expected.getY(), actual.getY());
+        assertEquals(message, expected.getVelocityX(), actual.getVelocityX());
+        assertEquals(message, expected.getVelocityY(), actual.getVelocityY());
+        assertEquals(message, expected.getWidth(), actual.getWidth());
+        if (expected instanceof Creature) {
+            assertEquals(message, ((Creature)expected).getState(),
+                ((Creature)actual).getState());
+        }
+    }
+
+    private TileMap createWalledMap() {
+        // ground, with walls at both ends and a step in the middle
+        Image tile = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        TileMap map = new TileMap(16, 8);
+        for (int x = 0; x < 16; x++)
+            map.setTile(x, 7, tile);
+        for (int y = 4; y < 7; y++) {
+            map.setTile(0, y, tile);
+            map.setTile(15, y, tile);
+        }
+        map.setTile(8, 6, tile);
+        return map;
+    }
+
+    private ArrayList<Sprite> createMovers() {
+        ArrayList<Sprite> sprites = new ArrayList<>();
+        sprites.add(new Alien(createAnimation(), createAnimation(),
+            createAnimation(), createAnimation()));
+        sprites.add(new Alien(createAnimation(), createAnimation(),
+            createAnimation(), createAnimation()));
+        sprites.add(new Pesawat(createAnimation(), createAnimation(),
+            createAnimation(), createAnimation()));
+        sprites.add(new PowerUp.Coin(createAnimation()));
+        sprites.add(new Stopper(createAnimation(), createAnimation(),
+            createAnimation(), createAnimation()));
+        for (int i = 0; i < sprites.size(); i++) {
+            Sprite sprite = sprites.get(i);
+            sprite.setX(100 + i * 150);
+            sprite.setY(100 + i * 20);
+            if (sprite instanceof Creature)
+                ((Creature)sprite).wakeUp();
+        }
+        return sprites;
+    }
+
+    /**
+        A Creature that stops at walls, instead of turning around.
+    */
+    public static class Stopper extends Alien {
+        public Stopper(Animation left, Animation right,
+            Animation deadLeft, Animation deadRight)
+        {
+            super(left, right, deadLeft, deadRight);
+        }
+
+        public void collideHorizontal() {
+            setVelocityX(0);
+        }
+    }
+
+    private Animation createAnimation() {
+        // frames of different sizes, so the bounds change with them
+        Animation anim = new Animation();
+        anim.addFrame(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB), 100);
+        anim.addFrame(new BufferedImage(24, 16, BufferedImage.TYPE_INT_ARGB), 50);
+        anim.addFrame(new BufferedImage(32, 16, BufferedImage.TYPE_INT_ARGB), 200);
+        return anim;
+    }
+}
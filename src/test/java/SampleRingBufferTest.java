@@ -0,0 +1,75 @@
+import AstrozleAudio.SampleRingBuffer;
+
+import junit.framework.*;
+
+public class SampleRingBufferTest extends TestCase {
+    public void testWrapsAroundWithoutOverwriting() throws Exception {
+        SampleRingBuffer ring = new SampleRingBuffer(6);
+        assertEquals("Capacity not a power of two", 8, ring.getCapacity());
+
+        short[] in = {1, 2, 3, 4, 5, 6};
+        short[] out = new short[8];
+        assertEquals(6, ring.write(in, 0, 6));
+        assertEquals(4, ring.read(out, 0, 4));
+        // 2 left, so 6 fit, across the end of the array
+        assertEquals("Wrote over unread samples", 6, ring.write(in, 0, 6));
+        assertEquals("Full ring took samples", 0, ring.write(in, 0, 1));
+        assertEquals(8, ring.available());
+
+        assertEquals(8, ring.read(out, 0, 8));
+        short[] expected = {5, 6, 1, 2, 3, 4, 5, 6};
+        for (int i = 0; i < 8; i++)
+            assertEquals("Sample " + i, expected[i], out[i]);
+        assertEquals("Empty ring gave samples", 0, ring.read(out, 0, 1));
+    }
+
+    public void testFinishedOnlyWhenEndedAndRead() throws Exception {
+        SampleRingBuffer ring = new SampleRingBuffer(4);
+        ring.write(new short[] {7}, 0, 1);
+        ring.end();
+        assertTrue(ring.isEnded());
+        assertFalse("Finished with a sample left", ring.isFinished());
+        ring.read(new short[1], 0, 1);
+        assertTrue(ring.isFinished());
+    }
+
+    public void testSamplesArriveInOrderAcrossThreads() throws Exception {
+        final SampleRingBuffer ring = new SampleRingBuffer(64);
+        final int count = 1000000;
+
+        // the producer writes a counting sequence in odd-sized blocks
+        Thread producer = new Thread() {
+            public void run() {
+                short[] block = new short[37];
+                int next = 0;
+                while (next < count) {
+                    int len = Math.min(block.length, count - next);
+                    for (int i = 0; i < len; i++)
+                        block[i] = (short)(next + i);
+                    int offset = 0;
+                    while (offset < len) {
+                        offset += ring.write(block, offset, len - offset);
+                        Thread.yield();
+                    }
+                    next += len;
+                }
+                ring.end();
+            }
+        };
+        producer.start();
+
+        short[] block = new short[23];
+        int expected = 0;
+        while (!ring.isFinished()) {
+            int read = ring.read(block, 0, block.length);
+            for (int i = 0; i < read; i++) {
+                assertEquals("Sample " + expected, (short)expected, block[i]);
+                expected++;
+            }
+            if (read == 0)
+                Thread.yield();
+        }
+        producer.join();
+        assertEquals("Samples lost", count, expected);
+    }
+}
@@ -0,0 +1,39 @@
+import AstrozleGraphics.Sprite;
+import AstrozleTilegame.SpatialGrid;
+
+import java.util.ArrayList;
+import junit.framework.*;
+
+public class SpatialGridTest extends TestCase {
+    public void testQueryOnlyFindsNearbySprites() throws Exception {
+        SpatialGrid grid = new SpatialGrid(1000, 12);
+        Sprite near = SpriteFixtures.createSprite(100, 100);
+        grid.add(near);
+        for (int i = 0; i < 1000; i++)
+            grid.add(SpriteFixtures.createSprite(64 * 20 + i * 60, 200));
+
+        ArrayList<Sprite> result = new ArrayList<>();
+        grid.query(90, 90, 32, 32, result);
+        assertTrue("Nearby sprite not found", result.contains(near));
+        assertTrue("Query visited far away cells", result.size() == 1);
+    }
+
+    public void testUpdateAndRemove() throws Exception {
+        SpatialGrid grid = new SpatialGrid(100, 12);
+        Sprite sprite = SpriteFixtures.createSprite(10, 10);
+        grid.add(sprite);
+
+        sprite.setX(64 * 50);
+        grid.update(sprite);
+        ArrayList<Sprite> result = new ArrayList<>();
+        grid.query(10, 10, 32, 32, result);
+        assertTrue("Moved sprite still found at old position", result.isEmpty());
+        grid.query(64 * 50, 10, 32, 32, result);
+        assertTrue("Moved sprite not found at new position", result.contains(sprite));
+
+        grid.remove(sprite);
+        result.clear();
+        grid.query(64 * 50, 10, 32, 32, result);
+        assertTrue("Removed sprite still found", result.isEmpty() && grid.size() == 0);
+    }
+}
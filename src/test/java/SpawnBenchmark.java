@@ -0,0 +1,106 @@
+import AstrozleGraphics.Animation;
+import AstrozleGraphics.Sprite;
+import AstrozleTilegame.SpawnRegistry;
+import AstrozleTilegame.sprites.Alien;
+import AstrozleTilegame.sprites.Pesawat;
+import AstrozleTilegame.sprites.PowerUp;
+import AstrozleTilegame.sprites.Stone;
+
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Constructor;
+
+/**
+    Compares the cost of spawning the Sprites of a map with 10k
+    entities through the SpawnRegistry factories and by reflection,
+    the way the "host" Sprites used to be cloned.
+
+    <p>Not a unit test. Run with:
+    mvn test-compile
+    java -cp target/classes:target/test-classes SpawnBenchmark
+*/
+public class SpawnBenchmark {
+    private static final int ENTITIES = 10000;
+    private static final int ROUNDS = 20;
+
+    // roughly the glyph mix of map1.txt
+    private static final char[] GLYPHS = "oooooooooo1122-*".toCharArray();
+
+    public static void main(String[] args) {
+        Animation anim = new Animation();
+        for (int i = 0; i < 8; i++)
+            anim.addFrame(new BufferedImage(50, 50, BufferedImage.TYPE_INT_ARGB), 60);
+
+        Class<?>[] hosts = new Class<?>[128];
+        hosts['o'] = PowerUp.Coin.class;
+        hosts['*'] = PowerUp.Goal.class;
+        hosts['1'] = Alien.class;
+        hosts['2'] = Pesawat.class;
+        hosts['-'] = Stone.class;
+
+        SpawnRegistry registry = new SpawnRegistry();
+        registry.register('o', () -> new PowerUp.Coin(copy(anim)));
+        registry.register('*', () -> new PowerUp.Goal(copy(anim)));
+        registry.register('1', () -> new Alien(copy(anim), copy(anim), copy(anim), copy(anim)));
+        registry.register('2', () -> new Pesawat(copy(anim), copy(anim), copy(anim), copy(anim)));
+        registry.register('-', () -> new Stone(copy(anim), copy(anim), copy(anim), copy(anim)));
+
+        // warm up both paths before measuring
+        for (int i = 0; i < ROUNDS; i++) {
+            spawnReflective(hosts, anim);
+            spawnRegistry(registry);
+        }
+
+        long reflective = Long.MAX_VALUE;
+        long factory = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            spawnReflective(hosts, anim);
+            reflective = Math.min(reflective, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            spawnRegistry(registry);
+            factory = Math.min(factory, System.nanoTime() - start);
+        }
+
+        System.out.printf("%d spawns, best of %d rounds%n", ENTITIES, ROUNDS);
+        System.out.printf("reflection:         %8.3f ms%n", reflective / 1e6);
+        System.out.printf("SpawnRegistry:      %8.3f ms%n", factory / 1e6);
+        System.out.printf("speedup:            %8.1fx%n", (double)reflective / factory);
+    }
+
+    private static Animation copy(Animation anim) {
+        return (Animation)anim.clone();
+    }
+
+    private static Sprite[] spawnReflective(Class<?>[] hosts, Animation anim) {
+        Sprite[] sprites = new Sprite[ENTITIES];
+        for (int i = 0; i < ENTITIES; i++)
+            sprites[i] = createReflective(hosts[GLYPHS[i % GLYPHS.length]], anim);
+        return sprites;
+    }
+
+    /**
+        Creates a Sprite the way the old clone() did: looks up the
+        first constructor, and calls it with a copy of the Animation
+        for each parameter.
+    */
+    private static Sprite createReflective(Class<?> type, Animation anim) {
+        Constructor<?> constructor = type.getConstructors()[0];
+        Object[] args = new Object[constructor.getParameterCount()];
+        for (int i = 0; i < args.length; i++)
+            args[i] = copy(anim);
+        try {
+            return (Sprite)constructor.newInstance(args);
+        }
+        catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static Sprite[] spawnRegistry(SpawnRegistry registry) {
+        Sprite[] sprites = new Sprite[ENTITIES];
+        for (int i = 0; i < ENTITIES; i++)
+            sprites[i] = registry.create(GLYPHS[i % GLYPHS.length]);
+        return sprites;
+    }
+}
@@ -0,0 +1,22 @@
+import AstrozleGraphics.Animation;
+import AstrozleGraphics.Sprite;
+
+import java.awt.image.BufferedImage;
+
+/**
+    Sprites shared by the tests.
+*/
+public class SpriteFixtures {
+    /**
+        Creates a Sprite with a single 32x32 frame at the specified
+        position.
+    */
+    public static Sprite createSprite(float x, float y) {
+        Animation anim = new Animation();
+        anim.addFrame(new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB), 100);
+        Sprite sprite = new Sprite(anim);
+        sprite.setX(x);
+        sprite.setY(y);
+        return sprite;
+    }
+}
@@ -0,0 +1,161 @@
+import AstrozleGraphics.Sprite;
+import AstrozleTilegame.CreatureUpdater;
+import AstrozleTilegame.TileCollision;
+import AstrozleTilegame.TileMap;
+
+import java.util.Random;
+import junit.framework.*;
+
+public class TileCollisionTest extends TestCase {
+    public void testFastMoveDoesNotTunnel() throws Exception {
+        TileMap map = new TileMap(20, 10);
+        map.setTileId(10, 5, (short)1);
+        Sprite sprite = SpriteFixtures.createSprite(64 * 2, 64 * 5);
+        TileCollision result = new TileCollision();
+
+        // 16 tiles in one step, through a one tile wall
+        assertTrue("Tunneled through the wall", CreatureUpdater.getTileCollision(
+            map, sprite, 64 * 18, 64 * 5, result));
+        assertEquals(10, result.getTileX());
+        assertEquals(5, result.getTileY());
+        float distance = result.getTime() * 64 * 16;
+        assertEquals("Wrong time of impact", 64 * 10 - 32 - 64 * 2, distance, 0.01f);
+    }
+
+    public void testNormals() throws Exception {
+        TileMap map = new TileMap(20, 10);
+        map.setTileId(5, 5, (short)1);
+        TileCollision result = new TileCollision();
+
+        // moving right, left, down and up into the tile
+        assertNormal(map, result, 64 * 3, 64 * 5, 64 * 5, 64 * 5, -1, 0);
+        assertNormal(map, result, 64 * 7, 64 * 5, 64 * 5, 64 * 5, 1, 0);
+        assertNormal(map, result, 64 * 5, 64 * 3, 64 * 5, 64 * 5, 0, -1);
+        assertNormal(map, result, 64 * 5, 64 * 7, 64 * 5, 64 * 5, 0, 1);
+    }
+
+    public void testTouchingIsNotOverlapping() throws Exception {
+        TileMap map = new TileMap(20, 10);
+        map.setTileId(5, 5, (short)1);
+        TileCollision result = new TileCollision();
+
+        // ends exactly on the left edge of the tile
+        Sprite sprite = SpriteFixtures.createSprite(64 * 3, 64 * 5);
+        assertFalse("Touching counted as a hit", CreatureUpdater.getTileCollision(
+            map, sprite, 64 * 5 - 32, 64 * 5, result));
+
+        // slides along the top of the tile
+        sprite = SpriteFixtures.createSprite(64 * 4, 64 * 5 - 32);
+        assertFalse("Sliding along the edge counted as a hit",
+            CreatureUpdater.getTileCollision(map, sprite, 64 * 7, 64 * 5 - 32, result));
+    }
+
+    public void testMoveStartingFlush() throws Exception {
+        TileMap map = new TileMap(20, 10);
+        map.setTileId(5, 5, (short)1);
+        TileCollision result = new TileCollision();
+
+        // flush against the left edge, moving into the tile
+        Sprite sprite = SpriteFixtures.createSprite(64 * 5 - 32, 64 * 5);
+        assertTrue(CreatureUpdater.getTileCollision(map, sprite, 64 * 5 - 31, 64 * 5, result));
+        assertEquals("Hit after the start", 0, result.getTime(), 0);
+        assertEquals(-1, result.getNormalX());
+
+        // flush, moving away
+        assertFalse("Hit while moving away", CreatureUpdater.getTileCollision(
+            map, sprite, 64 * 3, 64 * 5, result));
+    }
+
+    public void testMapEdges() throws Exception {
+        TileMap map = new TileMap(20, 10);
+        TileCollision result = new TileCollision();
+
+        // columns left and right of the map are solid
+        Sprite sprite = SpriteFixtures.createSprite(64, 64 * 5);
+        assertTrue(CreatureUpdater.getTileCollision(map, sprite, -100, 64 * 5, result));
+        assertEquals(-1, result.getTileX());
+        assertEquals(1, result.getNormalX());
+        sprite = SpriteFixtures.createSprite(64 * 18, 64 * 5);
+        assertTrue(CreatureUpdater.getTileCollision(map, sprite, 64 * 25, 64 * 5, result));
+        assertEquals(20, result.getTileX());
+
+        // rows above and below are not
+        sprite = SpriteFixtures.createSprite(64 * 5, 64);
+        assertFalse("Hit above the map", CreatureUpdater.getTileCollision(
+            map, sprite, 64 * 5, -1000, result));
+        sprite = SpriteFixtures.createSprite(64 * 5, 64 * 8);
+        assertFalse("Hit below the map", CreatureUpdater.getTileCollision(
+            map, sprite, 64 * 5, 64 * 20, result));
+    }
+
+    public void testAgreesWithBruteForce() throws Exception {
+        Random random = new Random(16);
+        TileMap map = new TileMap(40, 12);
+        for (int x = 0; x < 40; x++) {
+            for (int y = 0; y < 12; y++) {
+                if (random.nextInt(5) == 0)
+                    map.setTileId(x, y, (short)1);
+            }
+        }
+        TileCollision result = new TileCollision();
+
+        int checked = 0;
+        while (checked < 20000) {
+            float x = random.nextInt(64 * 40 * 4) / 4f;
+            float y = random.nextInt(64 * 12 * 4) / 4f;
+            if (overlaps(map, x, y))
+                continue;
+            float distance = (random.nextInt(1000 * 4) + 1) / 4f *
+                (random.nextBoolean() ? 1 : -1);
+            boolean alongX = random.nextBoolean();
+            float newX = alongX ? x + distance : x;
+            float newY = alongX ? y : y + distance;
+
+            // march a quarter pixel at a time
+            float hitAt = -1;
+            for (float d = 0.25f; d <= Math.abs(distance); d += 0.25f) {
+                float step = Math.copySign(d, distance);
+                if (overlaps(map, alongX ? x + step : x, alongX ? y : y + step)) {
+                    hitAt = d;
+                    break;
+                }
+            }
+
+            Sprite sprite = SpriteFixtures.createSprite(x, y);
+            boolean hit = CreatureUpdater.getTileCollision(map, sprite, newX, newY, result);
+            String move = "move from " + x + "," + y + " to " + newX + "," + newY;
+            assertEquals("Hit differs, " + move, hitAt >= 0, hit);
+            if (hit) {
+                // the sweep finds the touch, the march the first overlap,
+                // up to a quarter pixel later (plus rounding)
+                float sweepAt = result.getTime() * Math.abs(distance);
+                assertTrue("Time differs (" + sweepAt + " vs " + hitAt + "), " + move,
+                    sweepAt <= hitAt && hitAt - sweepAt <= 0.25f + 0.001f);
+            }
+            checked++;
+        }
+    }
+
+    private void assertNormal(TileMap map, TileCollision result,
+        float x, float y, float newX, float newY, int normalX, int normalY)
+    {
+        Sprite sprite = SpriteFixtures.createSprite(x, y);
+        assertTrue(CreatureUpdater.getTileCollision(map, sprite, newX, newY, result));
+        assertEquals("Normal x", normalX, result.getNormalX());
+        assertEquals("Normal y", normalY, result.getNormalY());
+    }
+
+    /**
+        Checks if a 32x32 box at the position overlaps a solid tile
+        or a column outside the map.
+    */
+    private boolean overlaps(TileMap map, float x, float y) {
+        for (int tileX = (int)Math.floor(x / 64); tileX * 64 < x + 32; tileX++) {
+            for (int tileY = (int)Math.floor(y / 64); tileY * 64 < y + 32; tileY++) {
+                if (tileX < 0 || tileX >= map.getWidth() || map.isSolid(tileX, tileY))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+import AstrozleTest.TripleBuffer;
+
+import junit.framework.*;
+
+public class TripleBufferTest extends TestCase {
+    public void testReaderGetsNewestPublished() throws Exception {
+        TripleBuffer<int[]> buffer = new TripleBuffer<>(
+            new int[1], new int[1], new int[1]);
+        assertNull("Front before first publish", buffer.getFront());
+
+        buffer.getBack()[0] = 1;
+        buffer.publish();
+        buffer.getBack()[0] = 2;
+        buffer.publish();
+        assertEquals("Not the newest buffer", 2, buffer.getFront()[0]);
+        assertEquals("Front changed without publish", 2, buffer.getFront()[0]);
+    }
+
+    public void testBuffersAreNeverShared() throws Exception {
+        final TripleBuffer<long[]> buffer = new TripleBuffer<>(
+            new long[2], new long[2], new long[2]);
+        final int count = 200000;
+
+        // the writer fills both halves with the same number
+        Thread writer = new Thread() {
+            public void run() {
+                for (long i = 1; i <= count; i++) {
+                    long[] back = buffer.getBack();
+                    back[0] = i;
+                    back[1] = i;
+                    buffer.publish();
+                }
+            }
+        };
+        writer.start();
+
+        long last = 0;
+        while (last < count) {
+            long[] front = buffer.getFront();
+            if (front == null)
+                continue;
+            assertEquals("Torn buffer", front[0], front[1]);
+            assertTrue("Went back in time", front[0] >= last);
+            last = front[0];
+        }
+        writer.join();
+    }
+}